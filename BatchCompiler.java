@@ -0,0 +1,86 @@
+package artmann.microjava;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Compiles many files in parallel on a fixed thread pool.
+ * Every file gets its own Scanner, Parser, SymTab and Code, the results are returned in the order of the sources.
+ */
+public final class BatchCompiler {
+
+    private final int threads;
+    private final boolean listing;
+    private final BuildCache cache;
+
+    public BatchCompiler(int threads, boolean listing, BuildCache cache) {
+        this.threads = Math.max(1, threads);
+        this.listing = listing;
+        this.cache = cache;
+    }
+
+    /**
+     * Compiles all sources. A compilation that fails with an exception is reported as an error of that file,
+     * the other files are still compiled.
+     */
+    public List<Compiler.Result> compile(List<Path> sources) throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, Math.max(1, sources.size())));
+        try {
+            List<Future<Compiler.Result>> futures = new ArrayList<>(sources.size());
+            for (Path source : sources) {
+                futures.add(pool.submit(() -> Compiler.compile(source, listing, cache)));
+            }
+            List<Compiler.Result> results = new ArrayList<>(sources.size());
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    results.add(futures.get(i).get());
+                } catch (ExecutionException e) {
+                    results.add(failed(sources.get(i), e.getCause()));
+                }
+            }
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("compilation interrupted", e);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static Compiler.Result failed(Path source, Throwable cause) {
+        return new Compiler.Result(source, 1, "-------------------------------\n"
+                + "Compiling " + source + "\n"
+                + "Internal compiler error: " + cause + "\n");
+    }
+
+    /**
+     * Expands the given files and directories into a sorted list of .mj files, directories are searched recursively.
+     */
+    public static List<Path> sources(List<String> names) throws IOException {
+        List<Path> sources = new ArrayList<>();
+        for (String name : names) {
+            Path path = Paths.get(name);
+            if (Files.isDirectory(path)) {
+                try (Stream<Path> files = Files.walk(path)) {
+                    sources.addAll(files
+                            .filter(p -> Files.isRegularFile(p) && p.toString().endsWith(".mj"))
+                            .sorted()
+                            .collect(Collectors.toList()));
+                }
+            } else {
+                sources.add(path);
+            }
+        }
+        return sources;
+    }
+}
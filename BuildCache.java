@@ -0,0 +1,177 @@
+package artmann.microjava;
+
+import artmann.microjava.codegen.Code;
+import artmann.microjava.codegen.Peephole;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * On-disk cache of compilation results, keyed by the SHA-256 of the compiler version, the platform charset, the optimization
+ * settings and the source bytes.
+ * An entry is a .obj file (only without errors) and a .err file holding the error count, whether the compilation
+ * was aborted at the error limit, the peephole statistics (an empty line if the optimizer is off) and the diagnostics. The error limit is part of the key as it changes the diagnostics.
+ * The modification time of the .err file is the last use, the least recently used entries are evicted
+ * when the cache grows beyond maxBytes, down to LOW_WATER of it so that the next puts do not evict again.
+ */
+public final class BuildCache {
+
+    /**
+     * Cached compilation result.
+     */
+    public static final class Entry {
+        public final int errorCount;
+        public final boolean aborted;
+        public final String diagnostics;
+        public final String optimized;
+        public final Path obj;
+
+        Entry(int errorCount, boolean aborted, String diagnostics, String optimized, Path obj) {
+            this.errorCount = errorCount;
+            this.aborted = aborted;
+            this.optimized = optimized;
+            this.diagnostics = diagnostics;
+            this.obj = obj;
+        }
+    }
+
+    private static final double LOW_WATER = 0.9;
+
+    private final Path dir;
+    private final long maxBytes;
+    private long size;
+
+    public BuildCache(Path dir, long maxBytes) throws IOException {
+        this.dir = Files.createDirectories(dir);
+        this.maxBytes = maxBytes;
+        evict();
+    }
+
+    public String key(byte[] source) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            md.update(Compiler.VERSION.getBytes(StandardCharsets.UTF_8));
+            md.update((byte) 0);
+            md.update(Charset.defaultCharset().name().getBytes(StandardCharsets.UTF_8));
+            md.update((byte) 0);
+            md.update(ByteBuffer.allocate(8).putInt(Peephole.WINDOW).putInt(Errors.DEFAULT_MAX_ERRORS).array());
+            md.update((byte) ((Code.STRENGTH_REDUCTION ? 1 : 0) | (Code.LOOP_ROTATION ? 2 : 0) | (Code.DEAD_CODE_ELIMINATION ? 4 : 0)));
+            byte[] hash = md.digest(source);
+            StringBuilder sb = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns the cached result for the given key, or null if there is none.
+     */
+    public Entry get(String key) {
+        Path err = dir.resolve(key + ".err");
+        try {
+            String content = new String(Files.readAllBytes(err), StandardCharsets.UTF_8);
+            int nl = content.indexOf('\n');
+            int nl2 = content.indexOf('\n', nl + 1);
+            String[] header = content.substring(0, nl).split(" ");
+            int errorCount = Integer.parseInt(header[0]);
+            boolean aborted = Boolean.parseBoolean(header[1]);
+            Path obj = dir.resolve(key + ".obj");
+            if (errorCount == 0 && !Files.exists(obj)) return null;
+            Files.setLastModifiedTime(err, FileTime.fromMillis(System.currentTimeMillis()));
+            String optimized = content.substring(nl + 1, nl2);
+            return new Entry(errorCount, aborted, content.substring(nl2 + 1), optimized.isEmpty() ? null : optimized,
+                    errorCount == 0 ? obj : null);
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Stores a compilation result, optimized is the single line of peephole statistics or null.
+     */
+    public void put(String key, int errorCount, boolean aborted, String diagnostics, String optimized, byte[] obj) throws IOException {
+        byte[] err = (errorCount + " " + aborted + "\n" + (optimized != null ? optimized : "") + "\n" + diagnostics)
+                .getBytes(StandardCharsets.UTF_8);
+        Path errFile = dir.resolve(key + ".err");
+        Path objFile = dir.resolve(key + ".obj");
+        // an overwritten entry replaces its old size
+        long replaced = sizeOf(errFile) + (errorCount == 0 ? sizeOf(objFile) : 0);
+        if (errorCount == 0) {
+            write(objFile, obj);
+        }
+        write(errFile, err);
+        synchronized (this) {
+            size += err.length + (errorCount == 0 ? obj.length : 0) - replaced;
+            if (size > maxBytes) evict();
+        }
+    }
+
+    private void write(Path file, byte[] content) throws IOException {
+        Path tmp = Files.createTempFile(dir, "tmp", null);
+        Files.write(tmp, content);
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Recounts the size and evicts down to the low-water mark if it is beyond maxBytes. Temporary files of
+     * concurrent writes are skipped, files deleted in the meantime count as empty.
+     */
+    private synchronized void evict() throws IOException {
+        List<Path> entries = new ArrayList<>();
+        Map<Path, Long> used = new HashMap<>();
+        size = 0;
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path p : (Iterable<Path>) files::iterator) {
+                if (p.getFileName().toString().startsWith("tmp")) continue;
+                size += sizeOf(p);
+                if (p.toString().endsWith(".err")) {
+                    entries.add(p);
+                    used.put(p, lastUse(p));
+                }
+            }
+        }
+        if (size <= maxBytes) return;
+        long lowWater = (long) (maxBytes * LOW_WATER);
+        entries.sort(Comparator.comparingLong(used::get));
+        for (Path err : entries) {
+            if (size <= lowWater) break;
+            String name = err.getFileName().toString();
+            Path obj = dir.resolve(name.substring(0, name.length() - 4) + ".obj");
+            size -= sizeOf(err) + sizeOf(obj);
+            Files.deleteIfExists(err);
+            Files.deleteIfExists(obj);
+        }
+    }
+
+    private static long lastUse(Path p) {
+        try {
+            return Files.getLastModifiedTime(p).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static long sizeOf(Path p) {
+        try {
+            return Files.size(p);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+}
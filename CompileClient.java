@@ -0,0 +1,117 @@
+package artmann.microjava;
+
+import java.io.*;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Thin client for the CompileServer, used in place of Compiler: sends each file to the server and writes the
+ * returned object file next to the source. Falls back to compiling in this JVM if no server is running.
+ * The client authenticates with the secret the server wrote to CompileServer.tokenFile, so it must run as the same user.
+ * A file whose request fails is reported and the client reconnects for the next one.
+ * Usage: CompileClient [-p port] files...
+ */
+public final class CompileClient {
+
+    public static void main(String[] args) throws IOException {
+        int port = CompileServer.DEFAULT_PORT;
+        List<String> files = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-p") && i + 1 < args.length) port = Integer.parseInt(args[++i]);
+            else files.add(args[i]);
+        }
+        List<Path> sources = BatchCompiler.sources(files);
+
+        Connection connection = Connection.open(port);
+        try {
+            for (Path source : sources) {
+                if (connection == null) {
+                    System.out.print(Compiler.compile(source, false).report);
+                    continue;
+                }
+                try {
+                    compile(connection, source);
+                } catch (IOException e) {
+                    // the server failed or went away, report this file and reconnect for the next one
+                    System.out.println("-------------------------------");
+                    System.out.println("Compiling " + source);
+                    System.out.println("I/O Error: " + (e instanceof EOFException ? "connection closed by the compile server" : e.getMessage()));
+                    connection.close();
+                    connection = Connection.open(port);
+                }
+            }
+        } finally {
+            if (connection != null) connection.close();
+        }
+    }
+
+    private static void compile(Connection connection, Path source) throws IOException {
+        DataOutputStream out = connection.out;
+        DataInputStream in = connection.in;
+        out.write(CompileServer.PATH);
+        CompileServer.writeBytes(out, source.toAbsolutePath().toString().getBytes(StandardCharsets.UTF_8));
+        out.flush();
+
+        int errorCount = in.readInt();
+        boolean aborted = in.readBoolean();
+        String diagnostics = new String(CompileServer.readBytes(in), StandardCharsets.UTF_8);
+        byte[] obj = CompileServer.readBytes(in);
+
+        System.out.println("-------------------------------");
+        System.out.println("Compiling " + source);
+        if (errorCount > 0 || aborted) {
+            System.out.println(diagnostics);
+            System.out.println(Compiler.summary(errorCount, aborted));
+        } else {
+            Files.write(Paths.get(Compiler.objectName(source.toString(), ".obj")), obj);
+            System.out.println("No errors.");
+        }
+    }
+
+    private static final class Connection implements Closeable {
+        final Socket socket;
+        final DataOutputStream out;
+        final DataInputStream in;
+
+        private Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        }
+
+        /**
+         * Connects and sends the secret of the server, returns null if no server is running.
+         */
+        static Connection open(int port) throws IOException {
+            byte[] secret;
+            Socket socket;
+            try {
+                secret = Files.readAllBytes(CompileServer.tokenFile(port));
+                socket = new Socket(InetAddress.getLoopbackAddress(), port);
+            } catch (NoSuchFileException | ConnectException e) {
+                return null;
+            }
+            try {
+                Connection connection = new Connection(socket);
+                CompileServer.writeBytes(connection.out, secret);
+                return connection;
+            } catch (IOException e) {
+                socket.close();
+                throw e;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+}
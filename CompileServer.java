@@ -0,0 +1,253 @@
+package artmann.microjava;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.concurrent.*;
+
+/**
+ * Long running compile server on a loopback socket, so the JVM start and the JIT warm-up are only paid once.
+ *
+ * Every connection starts with the length-prefixed secret of the server, a random token that the server writes to
+ * tokenFile(port), readable only by its user. A connection with a wrong secret is answered with an error and closed.
+ * Protocol (DataInput/DataOutput): each request is one op byte, followed by
+ *  PATH:   length-prefixed UTF-8 path of a source file readable by the server
+ *  SOURCE: length-prefixed source bytes
+ *  STOP:   nothing, shuts the server down
+ * and is answered with the error count, a boolean that is true if the compilation was aborted at the error limit,
+ * the length-prefixed UTF-8 diagnostics and the length-prefixed object file (length 0 if there were errors).
+ * A connection may send several requests.
+ * Other op codes and lengths above MAX_LENGTH are rejected and close the connection, a request that crashes the
+ * compiler is answered as an internal compiler error.
+ * A connection is read by its own thread and only the compilations run on the pool, so idle connections do not
+ * hold workers. A connection that is idle for IDLE_TIMEOUT is closed, a compilation that takes longer than
+ * COMPILE_TIMEOUT is cancelled and answered with an error.
+ * With -Dmicrojava.metrics=true the totals of all compilations are exposed as the MBean artmann.microjava:type=Metrics.
+ */
+public final class CompileServer {
+
+    public static final int DEFAULT_PORT = 4717;
+
+    public static final int PATH = 1;
+    public static final int SOURCE = 2;
+    public static final int STOP = 3;
+
+    public static final int MAX_LENGTH = 1 << 24;
+
+    public static final int IDLE_TIMEOUT = 30_000;
+    public static final int COMPILE_TIMEOUT = 60_000;
+    public static final int MAX_CONNECTIONS = 64;
+
+    private static final int SECRET_LENGTH = 32;
+
+    private final ServerSocket server;
+    private final ExecutorService pool;
+    private final ExecutorService connections;
+    private final Semaphore openConnections = new Semaphore(MAX_CONNECTIONS);
+    private final byte[] secret;
+    private final Path tokenFile;
+
+    public CompileServer(int port, int threads) throws IOException {
+        server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        try {
+            secret = new byte[SECRET_LENGTH];
+            new SecureRandom().nextBytes(secret);
+            tokenFile = tokenFile(server.getLocalPort());
+            writeToken(tokenFile, secret);
+        } catch (IOException | RuntimeException e) {
+            server.close();
+            throw e;
+        }
+        pool = Executors.newFixedThreadPool(Math.max(1, threads));
+        // daemon threads, so that connections that are still open do not keep a stopped server alive
+        connections = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "microjava-connection");
+            t.setDaemon(true);
+            return t;
+        });
+        if (Metrics.ENABLED) Metrics.registerMBean();
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        CompileServer server = new CompileServer(port, Runtime.getRuntime().availableProcessors());
+        System.out.println("MicroJava compile server listening on " + server.server.getLocalSocketAddress());
+        server.run();
+    }
+
+    /**
+     * The file holding the secret of the server on the given port, in the home directory of the user.
+     */
+    public static Path tokenFile(int port) {
+        return Paths.get(System.getProperty("user.home"), ".microjava", "server-" + port + ".token");
+    }
+
+    /**
+     * Writes the secret to a new file that only the user can read, on file systems with POSIX permissions.
+     */
+    private static void writeToken(Path file, byte[] secret) throws IOException {
+        boolean posix = file.getFileSystem().supportedFileAttributeViews().contains("posix");
+        Path dir = file.getParent();
+        if (!Files.isDirectory(dir)) {
+            try {
+                if (posix) Files.createDirectory(dir, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+                else Files.createDirectories(dir);
+            } catch (FileAlreadyExistsException e) {
+                // created concurrently
+            }
+        }
+        // a new file, so that it has the permissions from the start and no other user can own it
+        Files.deleteIfExists(file);
+        if (posix) Files.createFile(file, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        else Files.createFile(file);
+        Files.write(file, secret);
+    }
+
+    public void run() {
+        try {
+            while (!server.isClosed()) {
+                Socket socket = server.accept();
+                if (!openConnections.tryAcquire()) {
+                    socket.close();
+                    continue;
+                }
+                try {
+                    socket.setSoTimeout(IDLE_TIMEOUT);
+                    connections.execute(() -> {
+                        try {
+                            serve(socket);
+                        } finally {
+                            openConnections.release();
+                        }
+                    });
+                } catch (IOException | RejectedExecutionException e) {
+                    openConnections.release();
+                    socket.close();
+                }
+            }
+        } catch (IOException e) {
+            if (!server.isClosed()) System.out.println("I/O Error: " + e.getMessage());
+        } finally {
+            connections.shutdownNow();
+            pool.shutdownNow();
+            try {
+                Files.deleteIfExists(tokenFile);
+            } catch (IOException e) {
+                // a stale token file only makes clients fail to connect
+            }
+        }
+    }
+
+    public void stop() {
+        try {
+            server.close();
+        } catch (IOException e) {
+            // already closed
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (Socket s = socket;
+             DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()))) {
+            if (!authenticate(in)) {
+                reply(out, 1, false, "Invalid request: authentication failed\n", new byte[0]);
+                return;
+            }
+            for (int op = in.read(); op != -1; op = in.read()) {
+                if (op == STOP) {
+                    stop();
+                    return;
+                }
+                if (op != PATH && op != SOURCE) {
+                    // the length of the argument is unknown, answer and drop the connection
+                    reply(out, 1, false, "Invalid request: unknown op " + op + "\n", new byte[0]);
+                    return;
+                }
+                byte[] arg;
+                try {
+                    arg = readBytes(in);
+                } catch (StreamCorruptedException e) {
+                    // the rest of the stream cannot be parsed, answer and drop the connection
+                    reply(out, 1, false, "Invalid request: " + e.getMessage() + "\n", new byte[0]);
+                    return;
+                }
+                int requestOp = op;
+                Future<InMemoryCompiler.Output> result;
+                try {
+                    result = pool.submit(() -> InMemoryCompiler.compile(source(requestOp, arg)));
+                } catch (RejectedExecutionException e) {
+                    // the server is shutting down
+                    return;
+                }
+                InMemoryCompiler.Output output;
+                try {
+                    output = result.get(COMPILE_TIMEOUT, TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    // interrupts the compilation, the Parser stops at its next token and frees the worker
+                    result.cancel(true);
+                    reply(out, 1, false, "Internal compiler error: compilation timed out\n", new byte[0]);
+                    continue;
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof IOException) reply(out, 1, false, "I/O Error: " + cause.getMessage() + "\n", new byte[0]);
+                    else reply(out, 1, false, "Internal compiler error: " + cause + "\n", new byte[0]);
+                    continue;
+                } catch (InterruptedException e) {
+                    // the server is shutting down
+                    result.cancel(true);
+                    return;
+                }
+                reply(out, output.diagnostics.size(), output.aborted(), output.diagnosticsText(), output.success() ? output.obj : new byte[0]);
+            }
+        } catch (IOException e) {
+            // client went away or was idle for too long, nothing to answer
+        }
+    }
+
+    /**
+     * Reads the secret that starts every connection and compares it in constant time.
+     */
+    private boolean authenticate(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length != secret.length) return false;
+        byte[] b = new byte[length];
+        in.readFully(b);
+        return MessageDigest.isEqual(b, secret);
+    }
+
+    private static ByteBuffer source(int op, byte[] arg) throws IOException {
+        return op == PATH ? ByteBuffer.wrap(Files.readAllBytes(Paths.get(new String(arg, StandardCharsets.UTF_8)))) : ByteBuffer.wrap(arg);
+    }
+
+    private static void reply(DataOutputStream out, int errorCount, boolean aborted, String diagnostics, byte[] obj) throws IOException {
+        out.writeInt(errorCount);
+        out.writeBoolean(aborted);
+        writeBytes(out, diagnostics.getBytes(StandardCharsets.UTF_8));
+        writeBytes(out, obj);
+        out.flush();
+    }
+
+    static byte[] readBytes(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_LENGTH) throw new StreamCorruptedException("invalid length " + length);
+        byte[] b = new byte[length];
+        in.readFully(b);
+        return b;
+    }
+
+    static void writeBytes(DataOutputStream out, byte[] b) throws IOException {
+        out.writeInt(b.length);
+        out.write(b);
+    }
+}
@@ -1,49 +1,224 @@
 package artmann.microjava;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
- * Uses JDK 1.8.
- * Compiles Code from MicroJava into MicroJava-Bytecode in clear text.
- * Note that normally Bytecode would be written to a .obj file containing individual bytes for each instruction. For the purpose of understanding the output this compiler generates a clear text format of MJ-Bytecode, in a file type .cmj for "compiled microjava"
+ * Uses JDK 1.8. The optional JFR event in jfr/ (package artmann.microjava.jfr) needs the jdk.jfr module and can be left out of the build.
+ * Compiles Code from MicroJava into MicroJava-Bytecode, written to a .obj file containing individual bytes for each instruction.
+ * For the purpose of understanding the output the option -l additionally generates a clear text format of MJ-Bytecode, in a file type .cmj for "compiled microjava"
+ * Several files or directories are compiled in parallel, the option -j sets the number of threads.
+ * The option -c dir keeps compilation results in a build cache, so unchanged sources are not compiled again.
+ * With -Dmicrojava.peephole=n the code of each method is optimized by a peephole optimizer with window n (clamped to 0..64).
+ * With -Dmicrojava.metrics=true the phase times and counters of all compilations are printed at the end.
  *
  * This Compiler partly contains code that was given with prompts for the exercise "Übersetzerbau" at the Johannes Kepler University.
  */
 public class Compiler {
 
+    /**
+     * Version of the generated code, part of the build cache key. Must change whenever the output changes.
+     */
+    public static final String VERSION = "1.6";
+
+    private static final long CACHE_SIZE = 256L << 20;
+
+    /**
+     * Outcome of compiling one source file.
+     */
+    public static final class Result {
+        public final Path file;
+        public final int errorCount;
+        public final String report;
+
+        Result(Path file, int errorCount, String report) {
+            this.file = file;
+            this.errorCount = errorCount;
+            this.report = report;
+        }
+    }
+
     public static void main(String[] args) {
 
         String file = "Test.mj"; //input file to analyse
-        String outputName = objectName(file);
+        boolean listing = false;
+        int threads = Runtime.getRuntime().availableProcessors();
+        String cacheDir = null;
+        List<String> files = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-l")) listing = true;
+            else if (args[i].equals("-j") && i + 1 < args.length) threads = Integer.parseInt(args[++i]);
+            else if (args[i].equals("-c") && i + 1 < args.length) cacheDir = args[++i];
+            else files.add(args[i]);
+        }
+        if (files.isEmpty()) files.add(file);
 
         try {
-            Scanner scanner = new Scanner(new BufferedReader(new FileReader(file)));
+            BuildCache cache = cacheDir != null ? new BuildCache(Paths.get(cacheDir), CACHE_SIZE) : null;
 
+            if (files.size() == 1 && !new File(files.get(0)).isDirectory()) {
+                System.out.print(compile(Paths.get(files.get(0)), listing, cache).report);
+                if (Metrics.ENABLED) System.out.println(Metrics.totals());
+                return;
+            }
+
+            int errors = 0;
+            for (Result result : new BatchCompiler(threads, listing, cache).compile(BatchCompiler.sources(files))) {
+                System.out.print(result.report);
+                errors += result.errorCount;
+            }
             System.out.println("-------------------------------");
-            System.out.println("Compiling " + file);
+            System.out.println(errors + " errors in total.");
+            if (Metrics.ENABLED) System.out.println(Metrics.totals());
+        } catch (IOException ex) {
+            System.out.println("I/O Error: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Compiles one file, all state of the compilation is local to this call.
+     */
+    public static Result compile(Path file, boolean listing) {
+        return compile(file, listing, null);
+    }
+
+    /**
+     * Compiles one file, using and filling the given build cache if it is not null.
+     * Listings are not cached, so a file with listing is always compiled.
+     */
+    public static Result compile(Path file, boolean listing, BuildCache cache) {
+        StringWriter report = new StringWriter();
+        PrintWriter out = new PrintWriter(report);
+        int errorCount = 0;
+        boolean aborted = false;
+        Path output = Paths.get(objectName(file.toString(), ".obj"));
+
+        try {
+            out.println("-------------------------------");
+            out.println("Compiling " + file);
 
-            Parser parser = new Parser(scanner);
-            parser.parse();
-            if (scanner.errors.errorCount() == 0) {
-                parser.code.write(new BufferedWriter(new FileWriter(outputName)));
+            String diagnostics;
+            String optimized = null;
+            Scanner scanner = null;
+            String key = null;
+            BuildCache.Entry entry = null;
+            if (cache == null) {
+                scanner = Scanner.map(file);
+            } else {
+                byte[] source = Files.readAllBytes(file);
+                key = cache.key(source);
+                entry = listing ? null : cache.get(key);
+                if (entry != null && entry.errorCount == 0 && !copy(entry.obj, output)) entry = null;
+                if (entry == null) scanner = new Scanner(ByteBuffer.wrap(source));
+            }
+            if (entry != null) {
+                errorCount = entry.errorCount;
+                aborted = entry.aborted;
+                diagnostics = entry.diagnostics;
+                optimized = entry.optimized;
+            } else {
+                Compiled compiled = compileSource(scanner, listing);
+                errorCount = compiled.errors.errorCount();
+                aborted = compiled.errors.aborted();
+                diagnostics = compiled.errors.toString();
+                optimized = compiled.optimized;
+                if (compiled.obj != null) {
+                    Files.write(output, compiled.obj);
+                    if (compiled.listing != null) {
+                        Files.write(Paths.get(objectName(file.toString(), ".cmj")), compiled.listing.getBytes(Charset.defaultCharset()));
+                    }
+                }
+                if (cache != null) cache.put(key, errorCount, aborted, diagnostics, optimized, compiled.obj != null ? compiled.obj : new byte[0]);
             }
 
-            if (scanner.errors.errorCount() > 0) {
-                System.out.println(scanner.errors);
-                System.out.println(scanner.errors.errorCount() + " errors.");
+            if (errorCount > 0 || aborted) {
+                out.println(diagnostics);
+                out.println(summary(errorCount, aborted));
             } else {
-                System.out.println("No errors.");
+                out.println("No errors.");
+                if (optimized != null) out.println(optimized);
             }
         } catch (IOException ex) {
-            System.out.println("I/O Error: " + ex.getMessage());
+            out.println("I/O Error: " + ex.getMessage());
+            errorCount++;
+        }
+        out.flush();
+        return new Result(file, errorCount, report.toString());
+    }
+
+    /**
+     * Outcome of compiling one source: obj is null if there were errors, listing is null if it was not requested
+     * or there were errors, and optimized holds the peephole statistics or null if the optimizer is off.
+     */
+    private static final class Compiled {
+        final Errors errors;
+        final byte[] obj;
+        final String listing;
+        final String optimized;
+
+        Compiled(Errors errors, byte[] obj, String listing, String optimized) {
+            this.errors = errors;
+            this.obj = obj;
+            this.listing = listing;
+            this.optimized = optimized;
+        }
+    }
+
+    /**
+     * Parses the source of the scanner and renders its object file and listing in memory, the cache and the
+     * direct compilation both write their files from the result.
+     */
+    private static Compiled compileSource(Scanner scanner, boolean listing) throws IOException {
+        Parser parser = new Parser(scanner);
+        parser.parse();
+        byte[] obj = null;
+        String cmj = null;
+        if (!scanner.errors.failed()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(parser.code.pc + 14);
+            parser.code.write(out);
+            obj = out.toByteArray();
+            if (listing) {
+                StringWriter w = new StringWriter();
+                parser.code.write(new BufferedWriter(w));
+                cmj = w.toString();
+            }
         }
+        scanner.metrics.finish(parser.code.pc, scanner.errors.errorCount());
+        return new Compiled(scanner.errors, obj, cmj, parser.code.peephole != null ? parser.code.peephole.toString() : null);
+    }
+
+    /**
+     * Copies a cached object file, returns false if it was evicted since the lookup.
+     */
+    private static boolean copy(Path obj, Path output) throws IOException {
+        try {
+            Files.copy(obj, output, StandardCopyOption.REPLACE_EXISTING);
+            return true;
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+    }
+
+    /**
+     * The line that ends the report of a failed compilation, an aborted one had more errors than were kept.
+     */
+    static String summary(int errorCount, boolean aborted) {
+        return aborted ? "More than " + errorCount + " errors, compilation aborted." : errorCount + " errors.";
     }
 
-    private static String objectName(String s) {
+    static String objectName(String s, String extension) {
         int i = s.lastIndexOf('.');
         if (i > 0) {
-            return s.substring(0, i) + ".cmj";
+            return s.substring(0, i) + extension;
         }
-        return s + ".cmj";
+        return s + extension;
     }
 }
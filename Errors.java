@@ -2,6 +2,7 @@ package artmann.microjava;
 
 import java.text.MessageFormat;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 public class Errors {
@@ -78,44 +79,165 @@ public class Errors {
         // ----- error messages for Code
         NO_VAL("value expected"),
         NO_VAR("left-hand side of assignment must be a variable"),
-        OBJ_FILE("cannot write object file");
+        OBJ_FILE("cannot write object file"),
+        TOO_FAR("jump or call too far, the code is too large");
         // @formatter:on
 
         private final String msg;
+        private final int nParams;
 
         private Message(String msg) {
             this.msg = msg;
+            this.nParams = msg.contains("{0}") ? 1 : 0;
         }
 
         public String format(Object... params) {
-            if (params.length != (msg.contains("{0}") ? 1 : 0)) {
+            if (params.length != nParams) {
                 throw new Error("incorrect number of error message parameters");
             }
             return MessageFormat.format(msg, params);
         }
     }
 
-    private final List<String> errors;
+    /**
+     * One reported error with its position. The message text is only formatted when it is rendered.
+     */
+    public static final class Diagnostic {
+        public final int line;
+        public final int col;
+        public final Message message;
+        private final Object[] params;
+
+        Diagnostic(int line, int col, Message message, Object[] params) {
+            this.line = line;
+            this.col = col;
+            this.message = message;
+            this.params = params;
+        }
+
+        public String text() {
+            return message.format(params);
+        }
+
+        public String toString() {
+            return "-- line " + line + " col " + col + ": " + text();
+        }
+
+        /**
+         * Renders the diagnostic as a JSON object with line, col, code (the Message name) and message.
+         */
+        public String toJson() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("{\"line\":").append(line)
+                    .append(",\"col\":").append(col)
+                    .append(",\"code\":\"").append(message.name())
+                    .append("\",\"message\":\"");
+            String text = text();
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                switch (c) {
+                    case '"': sb.append("\\\""); break;
+                    case '\\': sb.append("\\\\"); break;
+                    default:
+                        if (c < ' ') sb.append(String.format("\\u%04x", (int) c));
+                        else sb.append(c);
+                }
+            }
+            return sb.append("\"}").toString();
+        }
+    }
+
+    /**
+     * Thrown when more than maxErrors errors are reported, the Parser then stops the compilation.
+     */
+    public static final class LimitExceeded extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        LimitExceeded() {
+            super("too many errors", null, false, false);
+        }
+    }
+
+    /**
+     * Default error limit, set with -Dmicrojava.maxErrors=n. Values below 1 count as 1, like in setMaxErrors
+     * the limit must keep at least the error that stops the compilation.
+     */
+    public static final int DEFAULT_MAX_ERRORS = Math.max(1, Integer.getInteger("microjava.maxErrors", 100));
+
+    private static final Object[] NO_PARAMS = new Object[0];
+
+    private final List<Diagnostic> errors;
+
+    private int maxErrors = DEFAULT_MAX_ERRORS;
+
+    private boolean aborted;
 
     public Errors() {
         errors = new ArrayList<>();
     }
 
+    /**
+     * Sets the number of errors that are kept, the next error aborts the compilation.
+     */
+    public void setMaxErrors(int maxErrors) {
+        if (maxErrors < 1) throw new IllegalArgumentException("maxErrors must be positive");
+        this.maxErrors = maxErrors;
+    }
 
     public void error(int line, int col, Message msg, Object... msgParams) {
-        errors.add("-- line " + line + " col " + col + ": " + msg.format(msgParams));
+        if (errors.size() == maxErrors) {
+            aborted = true;
+            throw new LimitExceeded();
+        }
+        if (msgParams.length != msg.nParams) {
+            throw new Error("incorrect number of error message parameters");
+        }
+        errors.add(new Diagnostic(line, col, msg, msgParams.length == 0 ? NO_PARAMS : msgParams));
     }
 
     public int errorCount() {
         return errors.size();
     }
 
+    /**
+     * True if the compilation stopped because the error limit was reached.
+     */
+    public boolean aborted() {
+        return aborted;
+    }
+
+    /**
+     * True if errors were reported or the compilation was aborted, no object file must be written then.
+     */
+    public boolean failed() {
+        return aborted || !errors.isEmpty();
+    }
+
+    public List<Diagnostic> diagnostics() {
+        return Collections.unmodifiableList(errors);
+    }
+
 
     public String toString() {
         StringBuilder sb = new StringBuilder();
-        for (String error : errors) {
+        for (Diagnostic error : errors) {
             sb.append(error).append("\n");
         }
+        if (aborted) {
+            sb.append("-- too many errors, compilation aborted\n");
+        }
         return sb.toString();
     }
+
+    /**
+     * Renders all diagnostics as a JSON object for tools: {"aborted":false,"errors":[...]}.
+     */
+    public String toJson() {
+        StringBuilder sb = new StringBuilder("{\"aborted\":").append(aborted).append(",\"errors\":[");
+        for (int i = 0; i < errors.size(); i++) {
+            if (i > 0) sb.append(',');
+            sb.append(errors.get(i).toJson());
+        }
+        return sb.append("]}").toString();
+    }
 }
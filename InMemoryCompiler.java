@@ -0,0 +1,101 @@
+package artmann.microjava;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.List;
+
+/**
+ * Compiles MicroJava source held in memory into an object file held in memory, without any file I/O.
+ * Every call uses its own Scanner, Parser, SymTab and Code, so the methods can be called concurrently.
+ */
+public final class InMemoryCompiler {
+
+    /**
+     * Object file and diagnostics of one compilation, obj is null if there were errors.
+     */
+    public static final class Output {
+        public final byte[] obj;
+        public final List<Errors.Diagnostic> diagnostics;
+        private final Errors errors;
+
+        Output(byte[] obj, Errors errors) {
+            this.obj = obj;
+            this.errors = errors;
+            this.diagnostics = errors.diagnostics();
+        }
+
+        public boolean success() {
+            return obj != null;
+        }
+
+        /**
+         * True if the compilation stopped at the error limit, diagnostics then only holds the first errors.
+         */
+        public boolean aborted() {
+            return errors.aborted();
+        }
+
+        /**
+         * Diagnostics in the same text form as printed by the Compiler.
+         */
+        public String diagnosticsText() {
+            return errors.toString();
+        }
+
+        /**
+         * Diagnostics as JSON, see Errors.toJson.
+         */
+        public String diagnosticsJson() {
+            return errors.toJson();
+        }
+    }
+
+    private InMemoryCompiler() {
+    }
+
+    public static Output compile(CharSequence src) {
+        char[] chars = new char[src.length()];
+        if (src instanceof CharBuffer) {
+            ((CharBuffer) src).duplicate().get(chars);
+        } else if (src instanceof String) {
+            ((String) src).getChars(0, chars.length, chars, 0);
+        } else {
+            for (int i = 0; i < chars.length; i++) chars[i] = src.charAt(i);
+        }
+        return compile(chars, chars.length);
+    }
+
+    public static Output compile(char[] src) {
+        return compile(src, src.length);
+    }
+
+    public static Output compile(char[] src, int len) {
+        return compile(new Scanner(src, len));
+    }
+
+    /**
+     * Compiles the bytes between position and limit of src (in the platform charset), the buffer itself is not modified.
+     */
+    public static Output compile(ByteBuffer src) {
+        return compile(new Scanner(src.duplicate()));
+    }
+
+    private static Output compile(Scanner scanner) {
+        Parser parser = new Parser(scanner);
+        parser.parse();
+        byte[] obj = null;
+        if (!scanner.errors.failed()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(parser.code.pc + 14);
+            try {
+                parser.code.write(out);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            obj = out.toByteArray();
+        }
+        scanner.metrics.finish(parser.code.pc, scanner.errors.errorCount());
+        return new Output(obj, scanner.errors);
+    }
+}
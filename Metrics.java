@@ -0,0 +1,152 @@
+package artmann.microjava;
+
+import java.lang.management.ManagementFactory;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Opt-in timers and counters of one compilation, enabled with -Dmicrojava.metrics=true.
+ * All updates are guarded by the constant ENABLED, so the JIT removes them when metrics are disabled.
+ * Lexing and code generation are interleaved with parsing, so the parse time excludes the time spent in the Scanner,
+ * SymTab and Code. The codegen time covers emitting code in Code, including the peephole optimizer, but not writing it.
+ */
+public final class Metrics {
+
+    public static final boolean ENABLED = Boolean.getBoolean("microjava.metrics");
+
+    private static Snapshot totals = new Snapshot(0, new Metrics());
+
+    /**
+     * Receives every finished compilation. The JFR event in jfr/ is used if it was compiled and jdk.jfr is present.
+     */
+    public interface Recorder {
+        void finished(Snapshot s);
+    }
+
+    private static final Recorder recorder = ENABLED ? recorder() : null;
+
+    private static Recorder recorder() {
+        try {
+            return (Recorder) Class.forName("artmann.microjava.jfr.CompilationEvent$Recorder").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    // ----- phase timers (System.nanoTime)
+    public long scanNanos;
+    public long symtabNanos;
+    public long parseNanos;
+    public long codegenNanos;
+    public long writeNanos;
+
+    // ----- counters
+    public long tokens;
+    public long symbols;
+    public long lookups;
+    public long probes;
+    public long labels;
+    public long fixups;
+    public long bytes;
+    public long growths;
+    public long errors;
+
+    /**
+     * Immutable copy of the metrics of one compilation, or the sum over several compilations.
+     */
+    public static final class Snapshot {
+        public final long compilations;
+        public final long scanNanos, symtabNanos, parseNanos, codegenNanos, writeNanos;
+        public final long tokens, symbols, lookups, probes, labels, fixups, bytes, growths, errors;
+
+        /**
+         * The metrics m of the given number of compilations, 0 for the empty totals.
+         */
+        private Snapshot(long compilations, Metrics m) {
+            this.compilations = compilations;
+            scanNanos = m.scanNanos;
+            symtabNanos = m.symtabNanos;
+            parseNanos = m.parseNanos - m.scanNanos - m.symtabNanos - m.codegenNanos;
+            codegenNanos = m.codegenNanos;
+            writeNanos = m.writeNanos;
+            tokens = m.tokens;
+            symbols = m.symbols;
+            lookups = m.lookups;
+            probes = m.probes;
+            labels = m.labels;
+            fixups = m.fixups;
+            bytes = m.bytes;
+            growths = m.growths;
+            errors = m.errors;
+        }
+
+        /**
+         * The sum of a and b.
+         */
+        private Snapshot(Snapshot a, Snapshot b) {
+            compilations = a.compilations + b.compilations;
+            scanNanos = a.scanNanos + b.scanNanos;
+            symtabNanos = a.symtabNanos + b.symtabNanos;
+            parseNanos = a.parseNanos + b.parseNanos;
+            codegenNanos = a.codegenNanos + b.codegenNanos;
+            writeNanos = a.writeNanos + b.writeNanos;
+            tokens = a.tokens + b.tokens;
+            symbols = a.symbols + b.symbols;
+            lookups = a.lookups + b.lookups;
+            probes = a.probes + b.probes;
+            labels = a.labels + b.labels;
+            fixups = a.fixups + b.fixups;
+            bytes = a.bytes + b.bytes;
+            growths = a.growths + b.growths;
+            errors = a.errors + b.errors;
+        }
+
+        public String toString() {
+            return String.format("compilations %d: scan %.3f ms, symtab %.3f ms, parse %.3f ms, codegen %.3f ms, write %.3f ms%n"
+                            + "tokens %d, symbols %d, lookups %d (%d probes), labels %d, fixups %d, bytes %d (%d growths), errors %d",
+                    compilations, scanNanos / 1e6, symtabNanos / 1e6, parseNanos / 1e6, codegenNanos / 1e6, writeNanos / 1e6,
+                    tokens, symbols, lookups, probes, labels, fixups, bytes, growths, errors);
+        }
+    }
+
+    public Snapshot snapshot() {
+        return new Snapshot(1, this);
+    }
+
+    /**
+     * Ends the compilation: adds it to the process totals and commits a JFR event if the recorder is available.
+     */
+    public void finish(int codeSize, int errorCount) {
+        if (!ENABLED) return;
+        bytes = codeSize;
+        errors = errorCount;
+        Snapshot s = snapshot();
+        synchronized (Metrics.class) {
+            totals = new Snapshot(totals, s);
+        }
+        if (recorder != null) recorder.finished(s);
+    }
+
+    /**
+     * Sum of all finished compilations in this process.
+     */
+    public static Snapshot totals() {
+        synchronized (Metrics.class) {
+            return totals;
+        }
+    }
+
+    /**
+     * Registers the totals as the MBean artmann.microjava:type=Metrics, for long running processes.
+     */
+    public static void registerMBean() {
+        try {
+            ObjectName name = new ObjectName("artmann.microjava:type=Metrics");
+            if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name)) {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsMXBean.Impl(), name);
+            }
+        } catch (JMException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
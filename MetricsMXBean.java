@@ -0,0 +1,41 @@
+package artmann.microjava;
+
+/**
+ * JMX view of the process-wide Metrics totals.
+ */
+public interface MetricsMXBean {
+
+    long getCompilations();
+    double getScanMillis();
+    double getSymtabMillis();
+    double getParseMillis();
+    double getCodegenMillis();
+    double getWriteMillis();
+    long getTokens();
+    long getSymbols();
+    long getLookups();
+    long getProbes();
+    long getLabels();
+    long getFixups();
+    long getBytes();
+    long getGrowths();
+    long getErrors();
+
+    final class Impl implements MetricsMXBean {
+        public long getCompilations() { return Metrics.totals().compilations; }
+        public double getScanMillis() { return Metrics.totals().scanNanos / 1e6; }
+        public double getSymtabMillis() { return Metrics.totals().symtabNanos / 1e6; }
+        public double getParseMillis() { return Metrics.totals().parseNanos / 1e6; }
+        public double getCodegenMillis() { return Metrics.totals().codegenNanos / 1e6; }
+        public double getWriteMillis() { return Metrics.totals().writeNanos / 1e6; }
+        public long getTokens() { return Metrics.totals().tokens; }
+        public long getSymbols() { return Metrics.totals().symbols; }
+        public long getLookups() { return Metrics.totals().lookups; }
+        public long getProbes() { return Metrics.totals().probes; }
+        public long getLabels() { return Metrics.totals().labels; }
+        public long getFixups() { return Metrics.totals().fixups; }
+        public long getBytes() { return Metrics.totals().bytes; }
+        public long getGrowths() { return Metrics.totals().growths; }
+        public long getErrors() { return Metrics.totals().errors; }
+    }
+}
@@ -3,12 +3,13 @@ package artmann.microjava;
 import artmann.microjava.codegen.Code;
 import artmann.microjava.codegen.Operand;
 import artmann.microjava.codegen.Label;
+import artmann.microjava.symtab.NameTable;
 import artmann.microjava.symtab.SymTab;
 import artmann.microjava.symtab.Obj;
 import artmann.microjava.symtab.Struct;
-import java.util.EnumSet;
-import java.util.Iterator;
+import java.util.Arrays;
 import java.util.Stack;
+import java.util.concurrent.CancellationException;
 
 public final class Parser {
 
@@ -16,8 +17,9 @@ public final class Parser {
     private static final int MAX_FIELDS = 32767;
     private static final int MAX_LOCALS = 127;
 
-    private Token t;
-    private Token la;
+    private final TokenBuffer tokens;
+    private int t;
+    private int la;
     private Token.TokenType sym;
     public final Scanner scanner;
     public final Code code;
@@ -25,33 +27,62 @@ public final class Parser {
 
     private int errDist = 3;
 
-    private static final EnumSet<Token.TokenType> firstFactor = EnumSet.of(Token.TokenType.ident, Token.TokenType.number, Token.TokenType.charConst, Token.TokenType.new_, Token.TokenType.lpar);
-    private static final EnumSet<Token.TokenType> assignop = EnumSet.of(Token.TokenType.plusas, Token.TokenType.minusas, Token.TokenType.timesas, Token.TokenType.slashas, Token.TokenType.remas);
-    private static final EnumSet<Token.TokenType> syncDecl = EnumSet.of(Token.TokenType.final_, Token.TokenType.class_, Token.TokenType.lbrace, Token.TokenType.eof);
-    private static final EnumSet<Token.TokenType> syncMethDecl = EnumSet.of(Token.TokenType.void_, Token.TokenType.eof);
-    private static final EnumSet<Token.TokenType> syncStat = EnumSet.of(Token.TokenType.if_, Token.TokenType.while_, Token.TokenType.break_, Token.TokenType.return_, Token.TokenType.read, Token.TokenType.print, Token.TokenType.semicolon, Token.TokenType.else_, Token.TokenType.rbrace, Token.TokenType.eof);
+    private static final long firstFactor = set(Token.TokenType.ident, Token.TokenType.number, Token.TokenType.charConst, Token.TokenType.new_, Token.TokenType.lpar);
+    private static final long assignop = set(Token.TokenType.plusas, Token.TokenType.minusas, Token.TokenType.timesas, Token.TokenType.slashas, Token.TokenType.remas);
+    private static final long syncDecl = set(Token.TokenType.final_, Token.TokenType.class_, Token.TokenType.lbrace, Token.TokenType.eof);
+    private static final long syncMethDecl = set(Token.TokenType.void_, Token.TokenType.eof);
+    private static final long syncStat = set(Token.TokenType.if_, Token.TokenType.while_, Token.TokenType.break_, Token.TokenType.return_, Token.TokenType.read, Token.TokenType.print, Token.TokenType.semicolon, Token.TokenType.else_, Token.TokenType.rbrace, Token.TokenType.eof);
+    private final int mainName;
     private Obj curMeth;
     private Label breakLab = null;
     private final Stack<Label> breaks = new Stack<>();
 
+    private static final byte NEG = 1, HAS_EXPR = 2, HAS_TERM = 4;
+    private static final byte RETURN = 0, PAREN = 1, INDEX = 2, ARG = 3, VAR_ARG = 4, SIZE = 5;
+    private Operand[] exprs = new Operand[16];
+    private Operand[] terms = new Operand[16];
+    private artmann.microjava.codegen.Code.OpCode[] addops = new artmann.microjava.codegen.Code.OpCode[16];
+    private artmann.microjava.codegen.Code.OpCode[] mulops = new artmann.microjava.codegen.Code.OpCode[16];
+    private byte[] exprState = new byte[16];
+    private int[] exprMarks = new int[16];
+    private int[] termMarks = new int[16];
+    private byte[] exprCont = new byte[16];
+    private Object[] exprOwners = new Object[16];
+    private int exprTop;
+
 
     public Parser(Scanner scanner) {
         this.scanner = scanner;
-        tab = new SymTab(this);
+        tab = new SymTab(this, scanner.names);
+        mainName = tab.names.intern("main");
         code = new Code(this);
-        la = new Token(Token.TokenType.none, 1, 1);
+        tokens = new TokenBuffer();
+        la = tokens.add(Token.TokenType.none, 1, 1, 0);
     }
 
     public void parse() {
-        scan();
-        Program();
-        check(Token.TokenType.eof);
+        long start = Metrics.ENABLED ? System.nanoTime() : 0;
+        try {
+            scan();
+            Program();
+            check(Token.TokenType.eof);
+        } catch (Errors.LimitExceeded e) {
+            // error limit reached, the diagnostics so far are kept
+        }
+        if (Metrics.ENABLED) scanner.metrics.parseNanos += System.nanoTime() - start;
     }
 
     private void scan() {
+        cancelIfInterrupted();
         t = la;
-        la = scanner.next();
-        sym = la.tokenType;
+        if (Metrics.ENABLED) {
+            long start = System.nanoTime();
+            la = scanner.next(tokens);
+            scanner.metrics.scanNanos += System.nanoTime() - start;
+        } else {
+            la = scanner.next(tokens);
+        }
+        sym = tokens.type(la);
 
         errDist++;
     }
@@ -64,9 +95,21 @@ public final class Parser {
         }
     }
 
+    /**
+     * Stops the compilation if its thread was interrupted, so that a caller that gave up waiting does not keep
+     * it running. Checked for every token and every error, which also covers recovery that makes no progress.
+     */
+    private void cancelIfInterrupted() {
+        if(Thread.interrupted()) throw new CancellationException("compilation cancelled");
+    }
+
+    /**
+     * Reports an error unless it is too close to the previous one.
+     */
     public void error(Errors.Message msg, Object... msgParams) {
+        cancelIfInterrupted();
         if(errDist >= 3) {
-            scanner.errors.error(la.line, la.col, msg, msgParams);
+            scanner.errors.error(tokens.line(la), tokens.col(la), msg, msgParams);
         }
         errDist = 0;
     }
@@ -74,7 +117,7 @@ public final class Parser {
     private void Program(){
         check(Token.TokenType.program);
         check(Token.TokenType.ident);
-        Obj prog = tab.insert(Obj.Kind.Prog, t.str, SymTab.noType);
+        Obj prog = tab.insert(Obj.Kind.Prog, name(t), SymTab.noType);
         tab.openScope();
         for(;;){
             if(sym == Token.TokenType.final_) {
@@ -97,8 +140,8 @@ public final class Parser {
             MethodDecl();
         }
         check(Token.TokenType.rbrace);
-        tab.findMeth("main");
-        prog.locals = tab.curScope.locals();
+        tab.findMeth(mainName);
+        prog.setLocals(tab.curScope);
         tab.closeScope();
     }
 
@@ -106,18 +149,18 @@ public final class Parser {
         check(Token.TokenType.final_);
         Struct type = Type();
         check(Token.TokenType.ident);
-        Obj con = tab.insert(Obj.Kind.Con, t.str, type);
+        Obj con = tab.insert(Obj.Kind.Con, name(t), type);
         check(Token.TokenType.assign);
         if(sym == Token.TokenType.number) {
             if(type.kind == Struct.Kind.Int) {
                 scan();
-                con.val = t.val;
+                con.setVal(tokens.val(t));
             } else error(Errors.Message.CONST_TYPE);
         }
         else if(sym == Token.TokenType.charConst) {
             if(type.kind == Struct.Kind.Char){
                 scan();
-                con.val = t.val;
+                con.setVal(tokens.val(t));
             } else error(Errors.Message.CONST_TYPE);
         }
         else error(Errors.Message.CONST_DECL);
@@ -129,7 +172,7 @@ public final class Parser {
         for(;;){
             if(sym == Token.TokenType.ident) {
                 scan();
-                tab.insert(Obj.Kind.Var, t.str, type);
+                tab.declare(Obj.Kind.Var, name(t), type);
             } else error(Errors.Message.TOKEN_EXPECTED, Token.TokenType.ident);
             if(sym == Token.TokenType.comma) scan();
             else break;
@@ -140,7 +183,7 @@ public final class Parser {
     private void ClassDecl(){
         check(Token.TokenType.class_);
         check(Token.TokenType.ident);
-        Obj clazz = tab.insert(Obj.Kind.Type, t.str, new Struct(Struct.Kind.Class));
+        Obj clazz = tab.insert(Obj.Kind.Type, name(t), new Struct(Struct.Kind.Class));
         check(Token.TokenType.lbrace);
         tab.openScope();
         while(sym == Token.TokenType.ident){
@@ -148,7 +191,7 @@ public final class Parser {
         }
         if(tab.curScope.nVars() > MAX_FIELDS)
             error(Errors.Message.TOO_MANY_FIELDS);
-        clazz.type.fields = tab.curScope.locals();
+        if(clazz != tab.noObj) clazz.type().setFields(tab.curScope);
         tab.closeScope();
         check(Token.TokenType.rbrace);
     }
@@ -169,12 +212,13 @@ public final class Parser {
         }
 
         check(Token.TokenType.ident);
-        curMeth = tab.insert(Obj.Kind.Meth, t.str, type);
-        curMeth.adr = code.pc;
+        curMeth = tab.insert(Obj.Kind.Meth, name(t), type);
+        code.methodStart();
+        curMeth.setAdr(code.pc);
         check(Token.TokenType.lpar);
         tab.openScope();
         if(sym == Token.TokenType.ident){
-            curMeth.nPars = FormPars();
+            curMeth.setNPars(FormPars());
         }
         check(Token.TokenType.rpar);
         while (sym == Token.TokenType.ident) {
@@ -182,21 +226,22 @@ public final class Parser {
         }
 
         if(tab.curScope.nVars() > MAX_LOCALS) error(Errors.Message.TOO_MANY_LOCALS);
-        if(curMeth.name.equals("main")){
-            if(curMeth.type != SymTab.noType) error(Errors.Message.MAIN_NOT_VOID);
-            if(curMeth.nPars != 0) error(Errors.Message.MAIN_WITH_PARAMS);
-            code.mainpc = curMeth.adr;
+        if(curMeth.id() == mainName){
+            if(curMeth.type() != SymTab.noType) error(Errors.Message.MAIN_NOT_VOID);
+            if(curMeth.nPars() != 0) error(Errors.Message.MAIN_WITH_PARAMS);
+            code.mainpc = curMeth.adr();
         }
 
         code.put(artmann.microjava.codegen.Code.OpCode.enter);
-        code.put(curMeth.nPars);
+        code.put(curMeth.nPars());
         code.put(tab.curScope.nVars());
 
         Block();
 
         code.return_(curMeth);
+        code.methodDone(curMeth.adr());
 
-        curMeth.locals = tab.curScope.locals();
+        curMeth.setLocals(tab.curScope);
         tab.closeScope();
 
     }
@@ -207,33 +252,33 @@ public final class Parser {
         for(;;){
             Struct type = Type();
             check(Token.TokenType.ident);
-            last = tab.insert(Obj.Kind.Var, t.str, type);
+            last = tab.insert(Obj.Kind.Var, name(t), type);
             nPars++;
             if(sym == Token.TokenType.comma) scan();
             else break;
         }
         if(sym == Token.TokenType.ppperiod) {
             scan();
-            last.type = new Struct(last.type);
-            curMeth.hasVarArg = true;
+            last.setType(last.type().arrayOf());
+            curMeth.setHasVarArg(true);
         }
         return nPars;
     }
 
     private Struct Type(){
         check(Token.TokenType.ident);
-        Obj o = tab.find(t.str);
+        Obj o = tab.find(name(t));
         Struct type;
-        if(o == null || o.kind != Obj.Kind.Type){
+        if(o == null || o.kind() != Obj.Kind.Type){
             error(Errors.Message.NO_TYPE);
             type = SymTab.noType;
         } else {
-            type = o.type;
+            type = o.type();
         }
         if(sym == Token.TokenType.lbrack) {
             scan();
             check(Token.TokenType.rbrack);
-            type = new Struct(type);
+            type = type.arrayOf();
         }
         return type;
     }
@@ -261,17 +306,19 @@ public final class Parser {
                     if(y.kind == Operand.Kind.Cond || y.kind == Operand.Kind.None) error(Errors.Message.NO_VAL);
                     if(!y.type.assignableTo(x.type)) error(Errors.Message.INCOMP_TYPES);
                     code.assign(x, y);
-                } else if (assignop.contains(sym)) {
+                } else if (symIn(assignop)) {
                     Token.TokenType op = Assignop();
                     if(x.kind == Operand.Kind.Fld) code.put(artmann.microjava.codegen.Code.OpCode.dup);
                     else if(x.kind == Operand.Kind.Elem) code.put(artmann.microjava.codegen.Code.OpCode.dup2);
                     else if(x.kind != Operand.Kind.Local && x.kind != Operand.Kind.Static) error(Errors.Message.NO_VAR);
-                    code.loadAndKeep(x);
+                    int mark = -1;
+                    if(x.kind == Operand.Kind.Local && Code.STRENGTH_REDUCTION && (op == Token.TokenType.plusas || op == Token.TokenType.minusas)) mark = code.deferLocal(x.adr);
+                    else code.loadAndKeep(x);
                     y = Expr();
                     if(y.kind == Operand.Kind.Cond || y.kind == Operand.Kind.None) error(Errors.Message.NO_VAL);
-                    assign(x, y, op);
+                    assign(x, y, op, mark);
                 } else if (sym == Token.TokenType.lpar) {
-                    ActPars(x);
+                    ActPars(x, false);
                     code.call(x);
                 } else if (sym == Token.TokenType.pplus) {
                     code.incDec(x, true);
@@ -287,18 +334,18 @@ public final class Parser {
                 check(Token.TokenType.lpar);
                 cond = Condition();
                 code.fJump(cond);
-                cond.tLabel.here();
+                cond.tHere();
                 check(Token.TokenType.rpar);
                 Statement();
                 if (sym == Token.TokenType.else_) {
                     Label end = new Label(code);
                     code.jump(end);
-                    cond.fLabel.here();
+                    cond.fHere();
                     scan();
                     Statement();
                     end.here();
                 } else {
-                    cond.fLabel.here();
+                    cond.fHere();
                 }
                 break;
             case while_:
@@ -306,17 +353,40 @@ public final class Parser {
                 breaks.push(breakLab);
                 breakLab = new Label(code);
                 check(Token.TokenType.lpar);
-                Label top = new Label(code);
-                top.here();
-                cond = Condition();
-                code.fJump(cond);
-                cond.tLabel.here();
-                check(Token.TokenType.rpar);
-                Statement();
-                code.jump(top);
+                if (Code.LOOP_ROTATION) {
+                    // the condition is moved behind the body, so an iteration executes a single backward jump
+                    int condStart = code.pc;
+                    boolean entered = code.reachable;
+                    cond = Condition();
+                    check(Token.TokenType.rpar);
+                    boolean condLive = code.reachable;
+                    artmann.microjava.codegen.Code.Fragment condCode = code.cut(condStart);
+                    code.reachable = entered;
+                    Label test = new Label(code);
+                    code.jump(test);
+                    // the body is only reached if the condition can be true
+                    code.reachable = entered && (condLive || cond.jumpsIfTrue());
+                    int body = code.reachable ? code.target() : code.pc;
+                    Statement();
+                    test.here();
+                    cond.moved(code.pc - condStart);
+                    code.paste(condCode);
+                    code.reachable = condLive;
+                    code.tJump(cond);
+                    cond.tAt(body);
+                } else {
+                    Label top = new Label(code);
+                    top.here();
+                    cond = Condition();
+                    code.fJump(cond);
+                    cond.tHere();
+                    check(Token.TokenType.rpar);
+                    Statement();
+                    code.jump(top);
+                }
+                cond.fHere();
                 breakLab.here();
                 breakLab = breaks.pop();
-                cond.fLabel.here();
                 break;
             case break_:
                 scan();
@@ -326,17 +396,16 @@ public final class Parser {
                 break;
             case return_:
                 scan();
-                if (sym == Token.TokenType.minus || firstFactor.contains(sym)) {
-                    if(curMeth.type == SymTab.noType) error(Errors.Message.RETURN_VOID);
+                if (sym == Token.TokenType.minus || symIn(firstFactor)) {
+                    if(curMeth.type() == SymTab.noType) error(Errors.Message.RETURN_VOID);
                     x = Expr();
                     if(x.kind == Operand.Kind.Meth) code.call(x);
                     else code.load(x);
-                    if(!x.type.assignableTo(curMeth.type)) error(Errors.Message.RETURN_TYPE);
+                    if(!x.type.assignableTo(curMeth.type())) error(Errors.Message.RETURN_TYPE);
                 } else {
-                    if(curMeth.type != SymTab.noType) error(Errors.Message.RETURN_NO_VAL);
+                    if(curMeth.type() != SymTab.noType) error(Errors.Message.RETURN_NO_VAL);
                 }
-                code.put(artmann.microjava.codegen.Code.OpCode.exit);
-                code.put(artmann.microjava.codegen.Code.OpCode.return_);
+                code.exit();
                 check(Token.TokenType.semicolon);
                 break;
             case read:
@@ -359,7 +428,7 @@ public final class Parser {
                 if (sym == Token.TokenType.comma) {
                     scan();
                     check(Token.TokenType.number);
-                    width = t.val;
+                    width = tokens.val(t);
                 }
                 if(x.kind == Operand.Kind.Meth) code.call(x);
                 else code.load(x);
@@ -383,6 +452,8 @@ public final class Parser {
                 break;
             default:
                 error(Errors.Message.INVALID_STAT);
+                // a stray else is a synchronization point but no statement, recovery would stop in front of it again
+                if(sym == Token.TokenType.else_) scan();
                 recoverStat();
                 break;
         }
@@ -407,75 +478,149 @@ public final class Parser {
         return op;
     }
 
-    private void ActPars(Operand m){
-        Operand x;
-        check(Token.TokenType.lpar);
-        if(m.kind != Operand.Kind.Meth) {
-            error(Errors.Message.NO_METH);
-            m.obj = tab.noObj;
-            return;
-        }
-        int aPars = 0;
-        int fPars = m.obj.nPars;
-        if(m.obj.hasVarArg) fPars--;
-        Iterator<Obj> locals = m.obj.locals.iterator();
-        Obj fp;
-        if(sym == Token.TokenType.minus || firstFactor.contains(sym)){
-            for(;;){
-                x = Expr();
-                if(x.kind == Operand.Kind.Meth) code.call(x);
+    /**
+     * If fold is set and m is chr or ord with a constant argument, the argument is not loaded but returned
+     * to be folded, otherwise null is returned.
+     */
+    private Operand ActPars(Operand m, boolean fold){
+        Call c = new Call(m, fold);
+        if(!c.start()) return null;
+        if(firstExpr()) {
+            while(c.arg(Expr()));
+        }
+        if(c.varArgs()) {
+            while(c.varArg(Expr()));
+        }
+        return c.end();
+    }
+
+    private boolean firstExpr(){
+        return sym == Token.TokenType.minus || symIn(firstFactor);
+    }
+
+    /**
+     * An actual parameter list while its arguments are parsed, either by ActPars or as levels of the expression stack.
+     */
+    private final class Call {
+        final Operand m;
+        boolean fold;
+        int aPars, fPars, nLocals, local;
+        Operand con;
+        Struct varType;
+        int varSize, parsedVarArgs;
+        boolean hash, invalidVarArgs;
+
+        Call(Operand m, boolean fold){
+            this.m = m;
+            this.fold = fold;
+        }
+
+        /**
+         * Parses the open parenthesis, returns false if m is not a method and its parameters are not parsed.
+         */
+        boolean start(){
+            check(Token.TokenType.lpar);
+            if(m.kind != Operand.Kind.Meth) {
+                error(Errors.Message.NO_METH);
+                m.obj = tab.noObj;
+                return false;
+            }
+            fold = fold && (m.obj == tab.chrObj || m.obj == tab.ordObj);
+            fPars = m.obj.nPars();
+            if(m.obj.hasVarArg()) fPars--;
+            nLocals = m.obj.nLocals();
+            return true;
+        }
+
+        /**
+         * Takes the argument x, returns true if another one follows. x is null after an invalid factor,
+         * it still counts as an argument but is neither checked nor loaded.
+         */
+        boolean arg(Operand x){
+            if(x != null) {
+                if(fold && aPars == 0 && x.kind == Operand.Kind.Con) con = x;
+                else if(x.kind == Operand.Kind.Meth) code.call(x);
                 else code.load(x);
-                aPars++;
-                if(locals.hasNext() && aPars <= fPars) {
-                    fp = locals.next();
-                    if(!x.type.assignableTo(fp.type)) error(Errors.Message.PARAM_TYPE);
-                }
-                if(sym == Token.TokenType.comma) scan();
-                else break;
             }
+            aPars++;
+            if(local < nLocals && aPars <= fPars) {
+                Obj fp = m.obj.local(local++);
+                if(x != null && !x.type.assignableTo(fp.type())) error(Errors.Message.PARAM_TYPE);
+            }
+            if(sym == Token.TokenType.comma) {
+                scan();
+                return true;
+            }
+            return false;
         }
-        if(aPars > fPars) error(Errors.Message.MORE_ACTUAL_PARAMS);
-        if(aPars < fPars) error(Errors.Message.LESS_ACTUAL_PARAMS);
-        if(sym == Token.TokenType.hash){
-            if(locals.hasNext() && m.obj.hasVarArg) {
-                VarArgs(locals.next().type.elemType);
-            } else {
-                VarArgs(SymTab.noType);
-                error(Errors.Message.INVALID_VARARG_CALL);
+
+        /**
+         * Called after the last argument, returns true if variable arguments follow.
+         */
+        boolean varArgs(){
+            if(aPars > fPars) error(Errors.Message.MORE_ACTUAL_PARAMS);
+            if(aPars < fPars) error(Errors.Message.LESS_ACTUAL_PARAMS);
+            if(sym == Token.TokenType.hash){
+                if(local < nLocals && m.obj.hasVarArg()) {
+                    varType = m.obj.local(local).type().elemType;
+                } else {
+                    varType = SymTab.noType;
+                    invalidVarArgs = true;
+                }
+                hash = true;
+                check(Token.TokenType.hash);
+                check(Token.TokenType.number);
+                varSize = tokens.val(t);
+                code.loadConst(varSize);
+                code.put(artmann.microjava.codegen.Code.OpCode.newarray);
+                if (varType == SymTab.charType) code.put(0); else code.put(1);
+                if(!firstExpr()) return false;
+                nextVarArg();
+                return true;
+            } else if (m.obj.hasVarArg() && local < nLocals){
+                code.loadConst(0);
+                code.put(artmann.microjava.codegen.Code.OpCode.newarray);
+                if (m.obj.local(local).type() == SymTab.charType) code.put(0); else code.put(1);
             }
-        } else if (m.obj.hasVarArg && locals.hasNext()){
-            code.loadConst(0);
-            code.put(artmann.microjava.codegen.Code.OpCode.newarray);
-            if (locals.next().type == SymTab.charType) code.put(0); else code.put(1);
+            return false;
         }
-        check(Token.TokenType.rpar);
-    }
 
-    private void VarArgs(Struct type){
-        Operand x;
-        check(Token.TokenType.hash);
-        check(Token.TokenType.number);
-        int size = t.val;
-        code.loadConst(size);
-        code.put(artmann.microjava.codegen.Code.OpCode.newarray);
-        if (type == SymTab.charType) code.put(0); else code.put(1);
-        int parsedVarArgs = 0;
-        if(sym == Token.TokenType.minus || firstFactor.contains(sym)){
-            for(;;){
-                code.put(artmann.microjava.codegen.Code.OpCode.dup);
-                code.loadConst(parsedVarArgs);
-                x = Expr();
-                if(type == SymTab.noType) type = x.type;
-                if(!x.type.assignableTo(type)) error(Errors.Message.PARAM_TYPE);
+        /**
+         * Stores the variable argument x, returns true if another one follows. x is null after an invalid factor.
+         */
+        boolean varArg(Operand x){
+            if(x != null) {
+                if(varType == SymTab.noType) varType = x.type;
+                if(!x.type.assignableTo(varType)) error(Errors.Message.PARAM_TYPE);
                 code.load(x);
-                if (type == SymTab.charType) code.put(artmann.microjava.codegen.Code.OpCode.bastore); else code.put(artmann.microjava.codegen.Code.OpCode.astore);
-                parsedVarArgs++;
-                if(sym == Token.TokenType.comma) scan();
-                else break;
             }
+            if (varType == SymTab.charType) code.put(artmann.microjava.codegen.Code.OpCode.bastore); else code.put(artmann.microjava.codegen.Code.OpCode.astore);
+            parsedVarArgs++;
+            if(sym == Token.TokenType.comma) {
+                scan();
+                nextVarArg();
+                return true;
+            }
+            return false;
+        }
+
+        private void nextVarArg(){
+            code.put(artmann.microjava.codegen.Code.OpCode.dup);
+            code.loadConst(parsedVarArgs);
+        }
+
+        /**
+         * Parses the closing parenthesis and returns the argument to be folded or null.
+         */
+        Operand end(){
+            if(hash) {
+                if(parsedVarArgs > varSize) error(Errors.Message.MORE_ACTUAL_VARARGS);
+                if(parsedVarArgs < varSize) error(Errors.Message.LESS_ACTUAL_VARARGS);
+                if(invalidVarArgs) error(Errors.Message.INVALID_VARARG_CALL);
+            }
+            check(Token.TokenType.rpar);
+            return aPars == 1 ? con : null;
         }
-        if(parsedVarArgs > size) error(Errors.Message.MORE_ACTUAL_VARARGS);
-        if(parsedVarArgs < size) error(Errors.Message.LESS_ACTUAL_VARARGS);
     }
 
     private Operand Condition(){
@@ -484,11 +629,12 @@ public final class Parser {
         for(;;){
             y = CondTerm();
             x.op = y.op;
-            x.fLabel = y.fLabel;
+            x.kind = y.kind;
+            x.shareFLabel(y);
             if(sym == Token.TokenType.or) {
                 code.tJump(x);
                 scan();
-                x.fLabel.here();
+                x.fHere();
             }
             else break;
         }
@@ -502,6 +648,9 @@ public final class Parser {
             y = CondFact();
             if(y == null) break;
             x.op = y.op;
+            x.kind = y.kind;
+            // a constant false comparison makes the term false, the rest of it is unreachable
+            if(y.kind == Operand.Kind.Con && y.val == 0) code.jump(x.fLabel());
             if(sym == Token.TokenType.and) {
                 code.fJump(x);
                 scan();
@@ -516,11 +665,30 @@ public final class Parser {
         artmann.microjava.codegen.Code.CompOp op;
         x = Expr();
         if(x == null) return null;
-        code.load(x);
+        int mark = -1;
+        if(x.kind == Operand.Kind.Con && Code.DEAD_CODE_ELIMINATION) {
+            mark = code.deferConst(x.val);
+            x.kind = Operand.Kind.Stack;
+        } else {
+            code.load(x);
+        }
         op = Relop();
         y = Expr();
         if(y == null) return null;
-        code.load(y);
+        if(mark >= 0 && op != null && y.kind == Operand.Kind.Con && (x.type == SymTab.intType || x.type == SymTab.charType)
+                && x.type.compatibleWith(y.type) && code.undefer(mark)) {
+            // comparison of two constants, no pending jump
+            Operand c = new Operand(code);
+            c.kind = Operand.Kind.Con;
+            c.val = op.holds(x.val, y.val) ? 1 : 0;
+            return c;
+        }
+        // a - b == 0 is a == b, but not for <, <=, > and >= because of overflow
+        if(!(y.kind == Operand.Kind.Con && y.val == 0 && y.type == SymTab.intType && x.type == SymTab.intType && Code.STRENGTH_REDUCTION
+                && (op == artmann.microjava.codegen.Code.CompOp.eq || op == artmann.microjava.codegen.Code.CompOp.ne)
+                && code.dropLast(artmann.microjava.codegen.Code.OpCode.sub))) {
+            code.load(y);
+        }
         if(!x.type.compatibleWith(y.type)) error(Errors.Message.INCOMP_TYPES);
         if(x.type.isRefType() && op != artmann.microjava.codegen.Code.CompOp.eq &&  op != artmann.microjava.codegen.Code.CompOp.ne) error(Errors.Message.EQ_CHECK);
         return new Operand(op, code);
@@ -553,106 +721,179 @@ public final class Parser {
         return null;
     }
 
+    /**
+     * Parses an expression without recursion: every open parenthesis, array index, argument and array size
+     * pushes a level on the expression stack, holding the expression and term parsed so far and their pending
+     * operators. The continuation of a level says what to do when it is complete: return it, check the closing
+     * parenthesis, or continue the designator, call or new that owns it, so the nesting depth is only limited
+     * by the heap. A constant left operand is only loaded when the right operand is not constant, otherwise both
+     * are folded.
+     */
     private Operand Expr(){
-        artmann.microjava.codegen.Code.OpCode op;
-        Operand x, y;
+        openExpr(RETURN, null);
+        Operand x;
+        for(;;){
+            while(sym == Token.TokenType.lpar){
+                scan();
+                openExpr(PAREN, null);
+            }
+            int level = exprTop;
+            x = Factor();
+            // unless Factor opened a level for a nested expression
+            while(exprTop == level){
+                int i = level - 1;
+                // x is a complete factor of level i
+                if((exprState[i] & HAS_TERM) == 0) {
+                    terms[i] = x;
+                    exprState[i] |= HAS_TERM;
+                } else if(terms[i] != null && x != null && terms[i].canFold(mulops[i], x) && code.undefer(termMarks[i])) {
+                    terms[i].fold(mulops[i], x);
+                } else {
+                    if(terms[i] != null && x != null && (terms[i].type != SymTab.intType || x.type != SymTab.intType)) error(Errors.Message.NO_INT_OP);
+                    arith(terms[i], termMarks[i], mulops[i], x);
+                }
+                if(sym == Token.TokenType.times || sym == Token.TokenType.slash || sym == Token.TokenType.rem){
+                    if(terms[i] != null && terms[i].kind == Operand.Kind.Con) termMarks[i] = code.deferConst(terms[i].val);
+                    else load(terms[i]);
+                    mulops[i] = Mulop();
+                    break;
+                }
+                // the term of level i is complete
+                x = terms[i];
+                exprState[i] &= ~HAS_TERM;
+                boolean done = false;
+                if((exprState[i] & HAS_EXPR) == 0) {
+                    if((exprState[i] & NEG) != 0 && x != null) {
+                        if(x.type != SymTab.intType) error(Errors.Message.NO_INT_OP);
+                        if(x.kind == Operand.Kind.Con) x.val = -x.val;
+                        else {
+                            code.load(x); code.put(artmann.microjava.codegen.Code.OpCode.neg);
+                        }
+                    }
+                    exprs[i] = x;
+                    exprState[i] |= HAS_EXPR;
+                } else if(x == null) {
+                    done = true;
+                } else if(exprs[i] != null && exprs[i].canFold(addops[i], x) && code.undefer(exprMarks[i])) {
+                    exprs[i].fold(addops[i], x);
+                } else {
+                    if(exprs[i] != null && (exprs[i].type != SymTab.intType || x.type != SymTab.intType)) error(Errors.Message.NO_INT_OP);
+                    arith(exprs[i], exprMarks[i], addops[i], x);
+                }
+                if(!done && (sym == Token.TokenType.plus || sym == Token.TokenType.minus)){
+                    if(exprs[i] != null && exprs[i].kind == Operand.Kind.Con) exprMarks[i] = code.deferConst(exprs[i].val);
+                    else load(exprs[i]);
+                    addops[i] = Addop();
+                    break;
+                }
+                // the expression of level i is complete
+                x = exprs[i];
+                Object owner = exprOwners[i];
+                exprs[i] = null;
+                terms[i] = null;
+                exprOwners[i] = null;
+                exprTop = level = i;
+                switch(exprCont[i]) {
+                    case RETURN: return x;
+                    case PAREN: check(Token.TokenType.rpar); break;
+                    case INDEX: x = index((Operand) owner, x); break;
+                    case ARG: x = callArg((Call) owner, x); break;
+                    case VAR_ARG: x = callVarArg((Call) owner, x); break;
+                    default: x = newArray((Struct) owner, x); break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Pushes a level with the continuation cont of its owner, a designator, call or array element type.
+     */
+    private void openExpr(byte cont, Object owner){
+        if(exprTop == exprs.length) {
+            int n = exprTop * 2;
+            exprs = Arrays.copyOf(exprs, n);
+            terms = Arrays.copyOf(terms, n);
+            addops = Arrays.copyOf(addops, n);
+            mulops = Arrays.copyOf(mulops, n);
+            exprState = Arrays.copyOf(exprState, n);
+            exprMarks = Arrays.copyOf(exprMarks, n);
+            termMarks = Arrays.copyOf(termMarks, n);
+            exprCont = Arrays.copyOf(exprCont, n);
+            exprOwners = Arrays.copyOf(exprOwners, n);
+        }
+        exprCont[exprTop] = cont;
+        exprOwners[exprTop] = owner;
+        exprState[exprTop] = 0;
         if(sym == Token.TokenType.minus) {
             scan();
-            x = Term();
-            if(x.type != SymTab.intType) error(Errors.Message.NO_INT_OP);
-            if(x.kind == Operand.Kind.Con) x.val = -x.val;
-            else {
-                code.load(x); code.put(artmann.microjava.codegen.Code.OpCode.neg);
-            }
-        } else {
-            x = Term();
-        }
-        while(sym == Token.TokenType.plus || sym == Token.TokenType.minus){
-            if(x.kind == Operand.Kind.Meth) code.call(x);
-            else code.load(x);
-            op = Addop();
-            y = Term();
-            if(y == null) return x;
-            if(x.type != SymTab.intType || y.type != SymTab.intType) error(Errors.Message.NO_INT_OP);
-            if(y.kind == Operand.Kind.Meth) code.call(y);
-            else code.load(y);
-            code.put(op);
+            exprState[exprTop] = NEG;
         }
-        return x;
+        exprTop++;
     }
 
-    private Operand Term(){
-        artmann.microjava.codegen.Code.OpCode op;
-        Operand x, y;
-        x = Factor();
-        while(sym == Token.TokenType.times || sym == Token.TokenType.slash || sym == Token.TokenType.rem){
-            if(x.kind == Operand.Kind.Meth) code.call(x);
-            else code.load(x);
-            op = Mulop();
-            y = Factor();
-            if(x.type != SymTab.intType || y.type != SymTab.intType) error(Errors.Message.NO_INT_OP);
-            if(y.kind == Operand.Kind.Meth) code.call(y);
-            else code.load(y);
-            code.put(op);
+    /**
+     * Emits x op y for an operation that was not folded. A constant x that is still deferred is swapped with y
+     * for commutative operators, so that Code.arith can reduce it as the right operand.
+     */
+    private void arith(Operand x, int mark, artmann.microjava.codegen.Code.OpCode op, Operand y){
+        if(x != null && x.kind == Operand.Kind.Con) {
+            if(y != null && x.type == SymTab.intType && y.type == SymTab.intType && Code.STRENGTH_REDUCTION
+                    && (op == artmann.microjava.codegen.Code.OpCode.add || op == artmann.microjava.codegen.Code.OpCode.mul)
+                    && code.undefer(mark)) {
+                load(y);
+                code.arith(op, new Operand(x.val));
+                x.kind = Operand.Kind.Stack;
+                return;
+            }
+            x.kind = Operand.Kind.Stack;
         }
-        return x;
+        if(y != null) code.arith(op, y);
+        else code.put(op);
+    }
+
+    private void load(Operand x){
+        if(x == null) return;
+        if(x.kind == Operand.Kind.Meth) code.call(x);
+        else code.load(x);
     }
 
+    /**
+     * All factors except parenthesized expressions, which are handled by Expr. A factor with a nested expression
+     * opens a level for it and returns null, Expr continues it when the level is complete.
+     */
     private Operand Factor(){
 
         Operand x;
         switch (sym) {
             case ident:
-                x = Designator();
-                if (sym == Token.TokenType.lpar) {
-                    if(x.kind != Operand.Kind.Meth) error(Errors.Message.NO_METH);
-                    if(x.type == SymTab.noType) error(Errors.Message.INVALID_CALL);
-                    ActPars(x);
-                    if (x.obj == tab.ordObj || x.obj == tab.chrObj) ; //nothing
-                    else if (x.obj == tab.lenObj)
-                        code.put(artmann.microjava.codegen.Code.OpCode.arraylength);
-                    else {
-                        code.call(x);
-                    }
-                    x.kind = Operand.Kind.Stack;
-                } else if(x.kind == Operand.Kind.Meth) x.kind = Operand.Kind.None;
+                check(Token.TokenType.ident);
+                x = selectors(new Operand(tab.find(name(t)), this));
                 break;
             case number:
                 scan();
-                x = new Operand(t.val);
+                x = new Operand(tokens.val(t));
                 break;
             case charConst:
                 scan();
-                x = new Operand(t.val);
+                x = new Operand(tokens.val(t));
                 x.type = SymTab.charType;
                 break;
             case new_:
                 scan();
                 check(Token.TokenType.ident);
-                Obj obj = tab.find(t.str);
-                Struct type = obj.type;
+                Obj obj = tab.find(name(t));
+                Struct type = obj.type();
                 if (sym == Token.TokenType.lbrack) {
                     scan();
-                    if(obj.kind != Obj.Kind.Type) error(Errors.Message.NO_TYPE);
-                    x = Expr();
-                    if(x.type != SymTab.intType) error(Errors.Message.ARRAY_SIZE);
-                    if(x.kind == Operand.Kind.Meth) code.call(x);
-                    else code.load(x);
-                    code.put(artmann.microjava.codegen.Code.OpCode.newarray);
-                    if (type == SymTab.charType) code.put(0); else code.put(1);
-                    type = new Struct(type);
-                    check(Token.TokenType.rbrack);
+                    if(obj.kind() != Obj.Kind.Type) error(Errors.Message.NO_TYPE);
+                    openExpr(SIZE, type);
+                    x = null;
                 } else {
-                    if (obj.kind != Obj.Kind.Type) error(Errors.Message.NO_TYPE);
+                    if (obj.kind() != Obj.Kind.Type) error(Errors.Message.NO_TYPE);
                     if(type.kind != Struct.Kind.Class) error(Errors.Message.NO_CLASS_TYPE);
                     code.put(artmann.microjava.codegen.Code.OpCode.new_); code.put2(type.nrFields());
+                    x = new Operand(type);
                 }
-                x = new Operand(type);
-                break;
-            case lpar:
-                scan();
-                x = Expr();
-                check(Token.TokenType.rpar);
                 break;
             default:
                 error(Errors.Message.INVALID_FACT);
@@ -662,39 +903,144 @@ public final class Parser {
         return x;
     }
 
+    /**
+     * Parses the rest of the designator x in a factor and a call of it.
+     */
+    private Operand selectors(Operand x){
+        for(;;){
+            if(sym == Token.TokenType.period){
+                field(x);
+            } else if(sym == Token.TokenType.lbrack){
+                startIndex(x);
+                openExpr(INDEX, x);
+                return null;
+            } else break;
+        }
+        if (sym == Token.TokenType.lpar) {
+            if(x.kind != Operand.Kind.Meth) error(Errors.Message.NO_METH);
+            if(x.type == SymTab.noType) error(Errors.Message.INVALID_CALL);
+            Call c = new Call(x, true);
+            if(!c.start()) return called(c, null);
+            if(firstExpr()) {
+                openExpr(ARG, c);
+                return null;
+            }
+            return callVarArgs(c);
+        } else if(x.kind == Operand.Kind.Meth) x.kind = Operand.Kind.None;
+        return x;
+    }
+
+    private Operand index(Operand x, Operand y){
+        endIndex(x, y);
+        return selectors(x);
+    }
+
+    private Operand callArg(Call c, Operand x){
+        if(c.arg(x)) {
+            openExpr(ARG, c);
+            return null;
+        }
+        return callVarArgs(c);
+    }
+
+    private Operand callVarArgs(Call c){
+        if(c.varArgs()) {
+            openExpr(VAR_ARG, c);
+            return null;
+        }
+        return called(c, c.end());
+    }
+
+    private Operand callVarArg(Call c, Operand x){
+        if(c.varArg(x)) {
+            openExpr(VAR_ARG, c);
+            return null;
+        }
+        return called(c, c.end());
+    }
+
+    private Operand called(Call c, Operand con){
+        Operand x = c.m;
+        if (con != null) { //chr or ord of a constant
+            con.type = x.type;
+            return con;
+        }
+        if (x.obj == tab.ordObj || x.obj == tab.chrObj) ; //nothing
+        else if (x.obj == tab.lenObj)
+            code.put(artmann.microjava.codegen.Code.OpCode.arraylength);
+        else {
+            code.call(x);
+        }
+        x.kind = Operand.Kind.Stack;
+        return x;
+    }
+
+    /**
+     * Completes the array size x, x is null after an invalid factor.
+     */
+    private Operand newArray(Struct type, Operand x){
+        if(x != null) {
+            if(x.type != SymTab.intType) error(Errors.Message.ARRAY_SIZE);
+            load(x);
+        }
+        code.put(artmann.microjava.codegen.Code.OpCode.newarray);
+        if (type == SymTab.charType) code.put(0); else code.put(1);
+        type = type.arrayOf();
+        check(Token.TokenType.rbrack);
+        return new Operand(type);
+    }
+
+    /**
+     * The designator of a statement, its indices are parsed by calls of Expr.
+     */
     private Operand Designator(){
         check(Token.TokenType.ident);
-        Operand x = new Operand(tab.find(t.str), this);
+        Operand x = new Operand(tab.find(name(t)), this);
         for(;;){
             if(sym == Token.TokenType.period){
-                if(x.type.kind != Struct.Kind.Class) error(Errors.Message.NO_CLASS);
-                scan();
-                if(x.kind == Operand.Kind.Meth) code.call(x);
-                else code.load(x);
-                check(Token.TokenType.ident);
-                Obj obj = tab.findField(t.str, x.type);
-                x.kind = Operand.Kind.Fld;
-                x.type = obj.type;
-                x.adr = obj.adr;
+                field(x);
             } else if(sym == Token.TokenType.lbrack){
-                if(x.kind != Operand.Kind.Local && x.kind != Operand.Kind.Static
-                        && x.kind != Operand.Kind.Elem && x.kind != Operand.Kind.Fld) error(Errors.Message.NO_VAL);
-                scan();
-                if(x.kind == Operand.Kind.Meth) code.call(x);
-                else code.load(x);
-                Operand y = Expr();
-                if(y.type != SymTab.intType) error(Errors.Message.ARRAY_INDEX);
-                if(y.kind == Operand.Kind.Meth) code.call(y);
-                else code.load(y);
-                if(x.type.kind != Struct.Kind.Arr) error(Errors.Message.NO_ARRAY);
-                x.kind = Operand.Kind.Elem;
-                x.type = x.type.elemType;
-                check(Token.TokenType.rbrack);
+                startIndex(x);
+                endIndex(x, Expr());
             } else break;
         }
         return x;
     }
 
+    private void field(Operand x){
+        if(x.type.kind != Struct.Kind.Class) error(Errors.Message.NO_CLASS);
+        scan();
+        if(x.kind == Operand.Kind.Meth) code.call(x);
+        else code.load(x);
+        check(Token.TokenType.ident);
+        Obj obj = tab.findField(name(t), x.type);
+        x.kind = Operand.Kind.Fld;
+        x.type = obj.type();
+        x.adr = obj.adr();
+    }
+
+    private void startIndex(Operand x){
+        if(x.kind != Operand.Kind.Local && x.kind != Operand.Kind.Static
+                && x.kind != Operand.Kind.Elem && x.kind != Operand.Kind.Fld) error(Errors.Message.NO_VAL);
+        scan();
+        if(x.kind == Operand.Kind.Meth) code.call(x);
+        else code.load(x);
+    }
+
+    /**
+     * Completes the index y of x, y is null after an invalid factor.
+     */
+    private void endIndex(Operand x, Operand y){
+        if(y != null) {
+            if(y.type != SymTab.intType) error(Errors.Message.ARRAY_INDEX);
+            load(y);
+        }
+        if(x.type.kind != Struct.Kind.Arr) error(Errors.Message.NO_ARRAY);
+        x.kind = Operand.Kind.Elem;
+        x.type = x.type.elemType;
+        check(Token.TokenType.rbrack);
+    }
+
     private artmann.microjava.codegen.Code.OpCode Addop(){
         if(sym == Token.TokenType.plus) { scan(); return artmann.microjava.codegen.Code.OpCode.add; }
         else if(sym == Token.TokenType.minus) { scan(); return artmann.microjava.codegen.Code.OpCode.sub; }
@@ -710,27 +1056,28 @@ public final class Parser {
         return null;
     }
 
-    private void assign(Operand x, Operand y, Token.TokenType assignOp){
+    /**
+     * Compound assignment, x is already loaded or deferred with mark (-1 if not deferred).
+     * Adding a small constant to a deferred local becomes an inc.
+     */
+    private void assign(Operand x, Operand y, Token.TokenType assignOp, int mark){
         if(x.type != SymTab.intType || y.type != SymTab.intType) error(Errors.Message.NO_INT_OP);
-        if(y.kind == Operand.Kind.Meth) code.call(y);
-        else code.load(y);
+        else if(mark >= 0 && y.kind == Operand.Kind.Con) {
+            int c = assignOp == Token.TokenType.plusas ? y.val : -y.val;
+            if(-128 <= c && c <= 127 && code.undefer(mark)) {
+                if(c != 0) code.inc(x.adr, c);
+                return;
+            }
+        }
+        artmann.microjava.codegen.Code.OpCode op;
         switch (assignOp) {
-            case plusas:
-                code.put(artmann.microjava.codegen.Code.OpCode.add);
-                break;
-            case minusas:
-                code.put(artmann.microjava.codegen.Code.OpCode.sub);
-                break;
-            case timesas:
-                code.put(artmann.microjava.codegen.Code.OpCode.mul);
-                break;
-            case slashas:
-                code.put(artmann.microjava.codegen.Code.OpCode.div);
-                break;
-            case remas:
-                code.put(artmann.microjava.codegen.Code.OpCode.rem);
-                break;
+            case plusas: op = artmann.microjava.codegen.Code.OpCode.add; break;
+            case minusas: op = artmann.microjava.codegen.Code.OpCode.sub; break;
+            case timesas: op = artmann.microjava.codegen.Code.OpCode.mul; break;
+            case slashas: op = artmann.microjava.codegen.Code.OpCode.div; break;
+            default: op = artmann.microjava.codegen.Code.OpCode.rem; break;
         }
+        code.arith(op, y);
         code.assign(x, y);
     }
 
@@ -738,19 +1085,19 @@ public final class Parser {
     private void recoverDecl(){
         do {
             scan();
-        } while (!syncDecl.contains(sym) && symIsNotType());
+        } while (!symIn(syncDecl) && symIsNotType());
         errDist = 0;
     }
 
     private void recoverMethodDecl(){
         do {
             scan();
-        } while (!syncMethDecl.contains(sym) && symIsNotType());
+        } while (!symIn(syncMethDecl) && symIsNotType());
         errDist = 0;
     }
 
     private void recoverStat(){
-        while(!syncStat.contains(sym)){
+        while(!symIn(syncStat)){
             scan();
         }
         errDist = 0;
@@ -758,12 +1105,35 @@ public final class Parser {
 
     private boolean symIsNotType(){
         if(sym == Token.TokenType.ident) {
-            Obj o = tab.find(la.str);
-            return o == null || o.kind != Obj.Kind.Type;
+            Obj o = tab.lookup(name(la));
+            return o == null || o.kind() != Obj.Kind.Type;
         }
         return true;
     }
 
+    /**
+     * Token sets are bit masks indexed by the ordinal of the token type.
+     */
+    private static long set(Token.TokenType... types){
+        long set = 0;
+        for (Token.TokenType type : types) {
+            if (type.ordinal() >= Long.SIZE) throw new IllegalStateException("too many token types for a bit set");
+            set |= 1L << type.ordinal();
+        }
+        return set;
+    }
+
+    private boolean symIn(long set){
+        return (set & 1L << sym.ordinal()) != 0;
+    }
+
+    /**
+     * Name id of an identifier token, NONE for all other tokens.
+     */
+    private int name(int token){
+        return tokens.type(token) == Token.TokenType.ident ? tokens.val(token) : NameTable.NONE;
+    }
+
     private int digitLength(int in){
         int len = 1;
         while (in > 9){
@@ -1,229 +1,377 @@
 package artmann.microjava;
 
+import artmann.microjava.symtab.NameTable;
+
 import java.io.IOException;
 import java.io.Reader;
-import java.util.HashMap;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
 
 public final class Scanner {
 
     private static final char EOF = (char) -1;
     private static final char LF = '\n';
+    private static final int BLOCK_SIZE = 1 << 16;
+
+    /**
+     * Source input, either a Reader or a (possibly memory-mapped) byte buffer. Both are read in
+     * blocks of BLOCK_SIZE into buf, nextCh() only increments pos within that window.
+     */
     private Reader in;
+    private ByteBuffer bytes;
+    private CharsetDecoder decoder;
+    private char[] buf;
+    private int pos;
+    private int limit;
     private char ch;
     private int line;
     private int col;
 
+    /**
+     * The token currently being scanned, copied into a Token or a TokenBuffer when complete.
+     */
+    private Token.TokenType kind;
+    private int tokLine;
+    private int tokCol;
+    private int tokVal;
+    private char[] name = new char[64];
+    private int nameLen;
+
     public final Errors errors;
 
-    private final HashMap<String, Token.TokenType> keywordMap = new HashMap<>();
+    public final NameTable names;
+    public final Metrics metrics;
 
     public Scanner(Reader r) {
+        this(r, null, new char[BLOCK_SIZE], 0);
+    }
+
+    /**
+     * Scans the first len characters of src directly, without copying and without further input.
+     */
+    public Scanner(char[] src, int len) {
+        this(null, null, src, len);
+    }
+
+    /**
+     * Scans the bytes between position and limit of the given buffer, decoded with the platform charset
+     * like a FileReader. Malformed input is replaced, not reported.
+     */
+    public Scanner(ByteBuffer src) {
+        this(null, src, new char[BLOCK_SIZE], 0);
+    }
+
+    /**
+     * Memory-maps the given source file and scans it as a byte buffer.
+     */
+    public static Scanner map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return new Scanner(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    private Scanner(Reader r, ByteBuffer b, char[] window, int len) {
         in = r;
+        bytes = b;
+        if (b != null) {
+            decoder = Charset.defaultCharset().newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        }
+        buf = window;
+        pos = 0;
+        limit = len;
         errors = new Errors();
-        keywordMap.put("break", Token.TokenType.break_);
-        keywordMap.put("class", Token.TokenType.class_);
-        keywordMap.put("else", Token.TokenType.else_);
-        keywordMap.put("final", Token.TokenType.final_);
-        keywordMap.put("if", Token.TokenType.if_);
-        keywordMap.put("new", Token.TokenType.new_);
-        keywordMap.put("print", Token.TokenType.print);
-        keywordMap.put("program", Token.TokenType.program);
-        keywordMap.put("read", Token.TokenType.read);
-        keywordMap.put("return", Token.TokenType.return_);
-        keywordMap.put("void", Token.TokenType.void_);
-        keywordMap.put("while", Token.TokenType.while_);
+        names = new NameTable();
+        metrics = new Metrics();
         line = 1; col = 0;
         nextCh();
     }
 
     public Token next() {
+        scan();
+        if (Metrics.ENABLED) metrics.tokens++;
+        Token t = new Token(kind, tokLine, tokCol);
+        t.val = tokVal;
+        if (nameLen > 0) t.str = kind == Token.TokenType.ident ? names.name(tokVal) : new String(name, 0, nameLen);
+        return t;
+    }
+
+    /**
+     * Scans the next token into the given buffer without allocating a Token.
+     * @return index of the token in the buffer
+     */
+    public int next(TokenBuffer tokens) {
+        scan();
+        if (Metrics.ENABLED) metrics.tokens++;
+        return tokens.add(kind, tokLine, tokCol, tokVal);
+    }
+
+    private void scan() {
 
         while (Character.isWhitespace(ch)) {
             nextCh();
         }
 
-        Token t = new Token(Token.TokenType.none, line, col);
+        kind = Token.TokenType.none;
+        tokLine = line;
+        tokCol = col;
+        tokVal = 0;
+        nameLen = 0;
 
         switch (ch) {
             //ident or keyword
             case 'a': case 'b': case 'c': case 'd': case 'e': case 'f': case 'g': case 'h': case 'i': case 'j': case 'k': case 'l': case 'm': case 'n': case 'o':  case 'p': case 'q': case 'r': case 's': case 't': case 'u': case 'v': case 'w': case 'x': case 'y': case 'z':
             case 'A': case 'B': case 'C': case 'D': case 'E': case 'F': case 'G': case 'H': case 'I': case 'J': case 'K': case 'L': case 'M': case 'N': case 'O':  case 'P': case 'Q': case 'R': case 'S': case 'T': case 'U': case 'V': case 'W': case 'X': case 'Y': case 'Z':
-                readName(t);
+                readName();
                 break;
             //number
             case '0': case '1': case '2': case '3': case '4': case '5': case '6': case '7': case '8': case '9':
-                readNumber(t);
+                readNumber();
                 break;
             //charConst
             case '\'':
-                readCharConst(t);
+                readCharConst();
                 break;
             //simple tokens
             case ';':
-                t.tokenType = Token.TokenType.semicolon; nextCh(); break;
+                kind = Token.TokenType.semicolon; nextCh(); break;
             case ',':
-                t.tokenType = Token.TokenType.comma; nextCh(); break;
+                kind = Token.TokenType.comma; nextCh(); break;
             case '(':
-                t.tokenType = Token.TokenType.lpar; nextCh(); break;
+                kind = Token.TokenType.lpar; nextCh(); break;
             case ')':
-                t.tokenType = Token.TokenType.rpar; nextCh(); break;
+                kind = Token.TokenType.rpar; nextCh(); break;
             case '[':
-                t.tokenType = Token.TokenType.lbrack; nextCh(); break;
+                kind = Token.TokenType.lbrack; nextCh(); break;
             case ']':
-                t.tokenType = Token.TokenType.rbrack; nextCh(); break;
+                kind = Token.TokenType.rbrack; nextCh(); break;
             case '{':
-                t.tokenType = Token.TokenType.lbrace; nextCh(); break;
+                kind = Token.TokenType.lbrace; nextCh(); break;
             case '}':
-                t.tokenType = Token.TokenType.rbrace; nextCh(); break;
+                kind = Token.TokenType.rbrace; nextCh(); break;
             case '#':
-                t.tokenType = Token.TokenType.hash; nextCh(); break;
+                kind = Token.TokenType.hash; nextCh(); break;
             case EOF:
-                t.tokenType = Token.TokenType.eof; break;
+                kind = Token.TokenType.eof; break;
             //compound tokens
             case '=':
                 nextCh();
-                if (ch == '=') { t.tokenType = Token.TokenType.eql; nextCh(); }
-                else { t.tokenType = Token.TokenType.assign; }
+                if (ch == '=') { kind = Token.TokenType.eql; nextCh(); }
+                else { kind = Token.TokenType.assign; }
                 break;
             case '/':
                 nextCh();
-                if (ch == '*') { skipComment(t); t = next(); }
-                else if (ch == '=') { t.tokenType = Token.TokenType.slashas; nextCh(); }
-                else { t.tokenType = Token.TokenType.slash; }
+                if (ch == '*') { skipComment(); scan(); }
+                else if (ch == '=') { kind = Token.TokenType.slashas; nextCh(); }
+                else { kind = Token.TokenType.slash; }
                 break;
             case '+':
                 nextCh();
-                if (ch == '+') { t.tokenType = Token.TokenType.pplus; nextCh(); }
-                else if (ch == '=') { t.tokenType = Token.TokenType.plusas; nextCh(); }
-                else { t.tokenType = Token.TokenType.plus; }
+                if (ch == '+') { kind = Token.TokenType.pplus; nextCh(); }
+                else if (ch == '=') { kind = Token.TokenType.plusas; nextCh(); }
+                else { kind = Token.TokenType.plus; }
                 break;
             case '-':
                 nextCh();
-                if (ch == '-') { t.tokenType = Token.TokenType.mminus; nextCh(); }
-                else if (ch == '=') { t.tokenType = Token.TokenType.minusas; nextCh(); }
-                else { t.tokenType = Token.TokenType.minus; }
+                if (ch == '-') { kind = Token.TokenType.mminus; nextCh(); }
+                else if (ch == '=') { kind = Token.TokenType.minusas; nextCh(); }
+                else { kind = Token.TokenType.minus; }
                 break;
             case '*':
                 nextCh();
-                if (ch == '=') { t.tokenType = Token.TokenType.timesas; nextCh(); }
-                else { t.tokenType = Token.TokenType.times; }
+                if (ch == '=') { kind = Token.TokenType.timesas; nextCh(); }
+                else { kind = Token.TokenType.times; }
                 break;
             case '%':
                 nextCh();
-                if (ch == '=') { t.tokenType = Token.TokenType.remas; nextCh(); }
-                else { t.tokenType = Token.TokenType.rem; }
+                if (ch == '=') { kind = Token.TokenType.remas; nextCh(); }
+                else { kind = Token.TokenType.rem; }
                 break;
             case '!':
                 nextCh();
-                if (ch == '=') { t.tokenType = Token.TokenType.neq; nextCh(); }
-                else { error(t, Errors.Message.INVALID_CHAR, '!'); }
+                if (ch == '=') { kind = Token.TokenType.neq; nextCh(); }
+                else { error(Errors.Message.INVALID_CHAR, '!'); }
                 break;
             case '<':
                 nextCh();
-                if (ch == '=') { t.tokenType = Token.TokenType.leq; nextCh(); }
-                else { t.tokenType = Token.TokenType.lss; }
+                if (ch == '=') { kind = Token.TokenType.leq; nextCh(); }
+                else { kind = Token.TokenType.lss; }
                 break;
             case '>':
                 nextCh();
-                if (ch == '=') { t.tokenType = Token.TokenType.geq; nextCh(); }
-                else { t.tokenType = Token.TokenType.gtr; }
+                if (ch == '=') { kind = Token.TokenType.geq; nextCh(); }
+                else { kind = Token.TokenType.gtr; }
                 break;
             case '&':
                 nextCh();
-                if (ch == '&') { t.tokenType = Token.TokenType.and; nextCh(); }
-                else { error(t, Errors.Message.INVALID_CHAR, '&'); }
+                if (ch == '&') { kind = Token.TokenType.and; nextCh(); }
+                else { error(Errors.Message.INVALID_CHAR, '&'); }
                 break;
             case '|':
                 nextCh();
-                if (ch == '|') { t.tokenType = Token.TokenType.or; nextCh(); }
-                else { error(t, Errors.Message.INVALID_CHAR, '|'); }
+                if (ch == '|') { kind = Token.TokenType.or; nextCh(); }
+                else { error(Errors.Message.INVALID_CHAR, '|'); }
                 break;
             case '.':
                 nextCh();
                 if (ch == '.') {
                     nextCh();
-                    if (ch == '.') { t.tokenType = Token.TokenType.ppperiod; nextCh(); } else { t.tokenType = Token.TokenType.pperiod; }
+                    if (ch == '.') { kind = Token.TokenType.ppperiod; nextCh(); } else { kind = Token.TokenType.pperiod; }
                 }
-                else { t.tokenType = Token.TokenType.period; }
+                else { kind = Token.TokenType.period; }
                 break;
             default:
-                error(t, Errors.Message.INVALID_CHAR, ch); nextCh();
+                error(Errors.Message.INVALID_CHAR, ch); nextCh();
                 break;
         }
 
-    	return t;
-
     }
 
     private void nextCh() {
-        try {
-            ch = (char) in.read(); col++;
-            if(ch == LF) { line++; col = 0; }
-        } catch (IOException e){
-            ch = EOF;
+        if (pos == limit && !fill()) {
+            ch = EOF; col++;
+            return;
         }
+        ch = buf[pos++]; col++;
+        if(ch == LF) { line++; col = 0; }
     }
 
-    private void readName(Token t) {
-        StringBuilder stringBuilder = new StringBuilder();
+    private boolean fill() {
+        pos = 0;
+        limit = 0;
+        if (in != null) {
+            try {
+                int n = in.read(buf, 0, buf.length);
+                if (n > 0) limit = n;
+            } catch (IOException e) {
+                in = null;
+            }
+        } else if (bytes != null) {
+            CharBuffer out = CharBuffer.wrap(buf);
+            decoder.decode(bytes, out, true);
+            if (!bytes.hasRemaining() && out.hasRemaining()) {
+                // all input decoded, the decoder has to be flushed once at the end
+                decoder.flush(out);
+                bytes = null;
+            }
+            limit = out.position();
+        }
+        return limit > 0;
+    }
+
+    private void readName() {
         do {
-            stringBuilder.append(ch);
+            if (nameLen == name.length) name = Arrays.copyOf(name, nameLen * 2);
+            name[nameLen++] = ch;
             nextCh();
         } while (Character.isAlphabetic(ch) || Character.isDigit(ch) || ch == '_');
-        t.str = stringBuilder.toString();
-        t.tokenType = keywordMap.getOrDefault(t.str, Token.TokenType.ident);
+        kind = keyword(name, nameLen);
+        if (kind == Token.TokenType.ident) tokVal = names.intern(name, 0, nameLen);
+    }
+
+    /**
+     * Classifies a name by its first character and length, so only one keyword has to be compared.
+     */
+    private static Token.TokenType keyword(char[] s, int len) {
+        switch (s[0]) {
+            case 'b': return matches(s, len, "break") ? Token.TokenType.break_ : Token.TokenType.ident;
+            case 'c': return matches(s, len, "class") ? Token.TokenType.class_ : Token.TokenType.ident;
+            case 'e': return matches(s, len, "else") ? Token.TokenType.else_ : Token.TokenType.ident;
+            case 'f': return matches(s, len, "final") ? Token.TokenType.final_ : Token.TokenType.ident;
+            case 'i': return matches(s, len, "if") ? Token.TokenType.if_ : Token.TokenType.ident;
+            case 'n': return matches(s, len, "new") ? Token.TokenType.new_ : Token.TokenType.ident;
+            case 'p':
+                if (len == 5) return matches(s, len, "print") ? Token.TokenType.print : Token.TokenType.ident;
+                return matches(s, len, "program") ? Token.TokenType.program : Token.TokenType.ident;
+            case 'r':
+                if (len == 4) return matches(s, len, "read") ? Token.TokenType.read : Token.TokenType.ident;
+                return matches(s, len, "return") ? Token.TokenType.return_ : Token.TokenType.ident;
+            case 'v': return matches(s, len, "void") ? Token.TokenType.void_ : Token.TokenType.ident;
+            case 'w': return matches(s, len, "while") ? Token.TokenType.while_ : Token.TokenType.ident;
+            default: return Token.TokenType.ident;
+        }
+    }
+
+    private static boolean matches(char[] s, int len, String keyword) {
+        if (len != keyword.length()) return false;
+        for (int i = 1; i < len; i++) {
+            if (s[i] != keyword.charAt(i)) return false;
+        }
+        return true;
     }
 
-    private void readCharConst(Token t) {
+    private void readCharConst() {
         char CR = '\r';
-        t.tokenType = Token.TokenType.charConst;
+        kind = Token.TokenType.charConst;
         nextCh();
         if (ch == '\\') {
             nextCh();
             if(ch == 'r') {
-                t.val = '\r';
+                tokVal = '\r';
             } else if (ch == 'n') {
-                t.val = '\n';
+                tokVal = '\n';
             } else if (ch == '\'') {
-                t.val = '\'';
+                tokVal = '\'';
             } else if (ch == '\\') {
-                t.val = '\\';
+                tokVal = '\\';
             } else {
-                error(t, Errors.Message.UNDEFINED_ESCAPE, ch);
+                error(Errors.Message.UNDEFINED_ESCAPE, ch);
             }
         } else if (ch == '\'') {
-            error(t, Errors.Message.EMPTY_CHARCONST);
+            error(Errors.Message.EMPTY_CHARCONST);
             nextCh();
             return;
         } else if (ch == LF || ch == CR) {
-            error(t, Errors.Message.ILLEGAL_LINE_END);
+            error(Errors.Message.ILLEGAL_LINE_END);
             return;
         } else if (ch == EOF) {
-            error(t, Errors.Message.EOF_IN_CHAR);
+            error(Errors.Message.EOF_IN_CHAR);
             return;
         } else {
-            t.val = ch;
+            tokVal = ch;
         }
         nextCh();
-        if(ch != '\'') error(t, Errors.Message.MISSING_QUOTE);
+        if(ch != '\'') error(Errors.Message.MISSING_QUOTE);
         else nextCh();
     }
 
-    private void readNumber(Token t) {
+    private void readNumber() {
+        kind = Token.TokenType.number;
+        int val = 0;
+        int zeros = 0;
+        do {
+            int digit = Character.digit(ch, 10);
+            if (val > (Integer.MAX_VALUE - digit) / 10) {
+                readBigNumber(zeros, val);
+                return;
+            }
+            if (val == 0 && digit == 0) zeros++;
+            val = val * 10 + digit;
+            nextCh();
+        } while (Character.isDigit(ch));
+        tokVal = val;
+    }
+
+    private void readBigNumber(int zeros, int prefix) {
         StringBuilder numberStr = new StringBuilder();
+        for (int i = 0; i < zeros; i++) numberStr.append('0');
+        if (prefix != 0) numberStr.append(prefix);
         do {
             numberStr.append(ch);
             nextCh();
         } while (Character.isDigit(ch));
-        t.tokenType = Token.TokenType.number;
-        try {
-            t.val = Integer.parseInt(numberStr.toString());
-        } catch (NumberFormatException e){
-            error(t, Errors.Message.BIG_NUM, numberStr.toString());
-        }
+        error(Errors.Message.BIG_NUM, numberStr.toString());
     }
 
-    private void skipComment(Token t) {
+    private void skipComment() {
         int nestedLevel = 1;
     	nextCh();
     	while (ch != EOF){
@@ -238,10 +386,10 @@ public final class Scanner {
                 }
             } else nextCh();
         }
-        error(t, Errors.Message.EOF_IN_COMMENT);
+        error(Errors.Message.EOF_IN_COMMENT);
     }
 
-    private void error(Token t, Errors.Message msg, Object... msgParams) {
-        errors.error(t.line, t.col, msg, msgParams);
+    private void error(Errors.Message msg, Object... msgParams) {
+        errors.error(tokLine, tokCol, msg, msgParams);
     }
 }
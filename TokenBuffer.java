@@ -0,0 +1,67 @@
+package artmann.microjava;
+
+/**
+ * Token stream stored in parallel primitive arrays, addressed by token index.
+ * The arrays are a ring of a fixed number of slots, so the memory does not grow with the source: a token index
+ * stays valid for the next capacity - 1 adds, which is enough for a Parser that only keeps t and la.
+ * The val of an identifier is its id in the Scanner's NameTable, its characters are not kept.
+ */
+public final class TokenBuffer {
+
+    private static final Token.TokenType[] TYPES = Token.TokenType.values();
+
+    private final byte[] type;
+    private final int[] line;
+    private final int[] col;
+    private final int[] val;
+    private final int mask;
+    private int size;
+
+    public TokenBuffer() {
+        this(16);
+    }
+
+    /**
+     * The capacity is rounded up to a power of two, at least 2.
+     */
+    public TokenBuffer(int capacity) {
+        int n = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        type = new byte[n];
+        line = new int[n];
+        col = new int[n];
+        val = new int[n];
+        mask = n - 1;
+    }
+
+    public int add(Token.TokenType tokenType, int tokLine, int tokCol, int tokVal) {
+        int i = size & mask;
+        type[i] = (byte) tokenType.ordinal();
+        line[i] = tokLine;
+        col[i] = tokCol;
+        val[i] = tokVal;
+        return size++;
+    }
+
+    /**
+     * Number of tokens added so far.
+     */
+    public int size() {
+        return size;
+    }
+
+    public Token.TokenType type(int i) {
+        return TYPES[type[i & mask]];
+    }
+
+    public int line(int i) {
+        return line[i & mask];
+    }
+
+    public int col(int i) {
+        return col[i & mask];
+    }
+
+    public int val(int i) {
+        return val[i & mask];
+    }
+}
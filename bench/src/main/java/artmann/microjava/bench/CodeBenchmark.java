@@ -0,0 +1,82 @@
+package artmann.microjava.bench;
+
+import artmann.microjava.Parser;
+import artmann.microjava.Scanner;
+import artmann.microjava.codegen.Code;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Instruction emission into Code and writing of the object file and the listing, the counter gives bytes/sec.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CodeBenchmark {
+
+    private static final int INSTRUCTIONS = 100000;
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Counters {
+        public long bytes;
+    }
+
+    private Code code;
+
+    @Setup
+    public void setup() {
+        char[] src = Sources.of("large");
+        Scanner scanner = new Scanner(src, src.length);
+        Parser parser = new Parser(scanner);
+        parser.parse();
+        if (scanner.errors.failed()) {
+            throw new IllegalStateException(scanner.errors.toString());
+        }
+        code = parser.code;
+    }
+
+    @Benchmark
+    public int emit(Counters counters) {
+        Code c = new Parser(new Scanner(new char[0], 0)).code;
+        for (int i = 0; i < INSTRUCTIONS; i++) {
+            c.put(Code.OpCode.load);
+            c.put(i & 0x7F);
+            c.put(Code.OpCode.const_);
+            c.put4(i);
+            c.put(Code.OpCode.add);
+            c.put(Code.OpCode.getstatic);
+            c.put2(i & 0x7FFF);
+        }
+        counters.bytes += c.pc;
+        return c.pc;
+    }
+
+    @Benchmark
+    public int writeObject(Counters counters) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(code.pc + 14);
+        code.write(out);
+        counters.bytes += code.pc;
+        return out.size();
+    }
+
+    @Benchmark
+    public void writeListing(Counters counters) throws IOException {
+        code.write(new BufferedWriter(new NullWriter()));
+        counters.bytes += code.pc;
+    }
+
+    private static final class NullWriter extends Writer {
+        @Override public void write(char[] cbuf, int off, int len) { }
+        @Override public void flush() { }
+        @Override public void close() { }
+    }
+}
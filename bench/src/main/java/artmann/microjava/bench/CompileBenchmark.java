@@ -0,0 +1,37 @@
+package artmann.microjava.bench;
+
+import artmann.microjava.InMemoryCompiler;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end compilation of small, medium and very large generated programs.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CompileBenchmark {
+
+    @Param({"small", "medium", "large"})
+    public String size;
+
+    private char[] src;
+
+    @Setup
+    public void setup() {
+        src = Sources.of(size);
+        InMemoryCompiler.Output output = InMemoryCompiler.compile(src);
+        if (!output.success()) {
+            throw new IllegalStateException(output.diagnosticsText());
+        }
+    }
+
+    @Benchmark
+    public InMemoryCompiler.Output compile() {
+        return InMemoryCompiler.compile(src);
+    }
+}
@@ -0,0 +1,94 @@
+package artmann.microjava.bench;
+
+import artmann.microjava.InMemoryCompiler;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs loop-heavy programs on the Interpreter, with and without strength reduction in the compiler.
+ * The instructions counter is the number of executed MicroJava instructions per run.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ExecutionBenchmark {
+
+    @Param({"sum", "sieve", "collatz"})
+    public String program;
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Counters {
+        public long instructions;
+    }
+
+    private Interpreter interpreter;
+
+    @Setup
+    public void setup() {
+        InMemoryCompiler.Output output = InMemoryCompiler.compile(source(program).toCharArray());
+        if (!output.success()) {
+            throw new IllegalStateException(output.diagnosticsText());
+        }
+        interpreter = new Interpreter(output.obj);
+    }
+
+    @Benchmark
+    public long run(Counters counters) {
+        return counters.instructions = interpreter.run();
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = "-Dmicrojava.strengthReduction=false")
+    public long runUnreduced(Counters counters) {
+        return counters.instructions = interpreter.run();
+    }
+
+    private static String source(String program) {
+        switch (program) {
+            case "sum":
+                return "program Sum {\n"
+                        + "  void main() int i, s; {\n"
+                        + "    i = 0; s = 0;\n"
+                        + "    while (i - 100000 != 0) { s += i * 8; s -= 1; i += 1; }\n"
+                        + "    print(s);\n"
+                        + "  }\n"
+                        + "}\n";
+            case "sieve":
+                return "program Sieve {\n"
+                        + "  void main() int n, i, j, count; int[] composite; {\n"
+                        + "    n = 20000; composite = new int[n]; count = 0; i = 2;\n"
+                        + "    while (i < n) {\n"
+                        + "      if (composite[i] == 0) {\n"
+                        + "        count += 1; j = i * 2;\n"
+                        + "        while (j < n) { composite[j] = 1; j += i; }\n"
+                        + "      }\n"
+                        + "      i += 1;\n"
+                        + "    }\n"
+                        + "    print(count);\n"
+                        + "  }\n"
+                        + "}\n";
+            case "collatz":
+                return "program Collatz {\n"
+                        + "  void main() int i, n, steps; {\n"
+                        + "    i = 1; steps = 0;\n"
+                        + "    while (i < 3000) {\n"
+                        + "      n = i;\n"
+                        + "      while (n - 1 != 0) {\n"
+                        + "        if (n % 2 == 0) n = n / 2; else n = n * 4 - n + 1;\n"
+                        + "        steps += 1;\n"
+                        + "      }\n"
+                        + "      i += 1;\n"
+                        + "    }\n"
+                        + "    print(steps);\n"
+                        + "  }\n"
+                        + "}\n";
+            default:
+                throw new IllegalArgumentException("unknown program " + program);
+        }
+    }
+}
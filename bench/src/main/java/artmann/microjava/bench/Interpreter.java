@@ -0,0 +1,160 @@
+package artmann.microjava.bench;
+
+import artmann.microjava.codegen.Code;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Minimal MicroJava VM for the execution benchmarks. Runs an object file and counts the executed instructions,
+ * read returns 0 and print output is discarded. It trusts the compiler and does no verification.
+ */
+final class Interpreter {
+
+    private static final Code.OpCode[] OPS = Code.OpCode.values();
+
+    private final byte[] code;
+    private final int[] data;
+    private final int mainpc;
+    private final List<int[]> heap = new ArrayList<>();
+
+    private final int[] stack = new int[1 << 12];
+    private int sp;
+    private final int[] locals = new int[1 << 16];
+    private int fp, lsp;
+    private final int[] returns = new int[1 << 12];
+    private final int[] frames = new int[1 << 12];
+    private int rsp;
+
+    long instructions;
+
+    Interpreter(byte[] obj) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(obj))) {
+            if (in.readByte() != 'M' || in.readByte() != 'J') throw new IllegalArgumentException("not an object file");
+            code = new byte[in.readInt()];
+            data = new int[in.readInt()];
+            mainpc = in.readInt();
+            in.readFully(code);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /**
+     * Runs main and returns the number of executed instructions.
+     */
+    long run() {
+        instructions = 0;
+        sp = fp = lsp = rsp = 0;
+        heap.clear();
+        Arrays.fill(data, 0);
+        int pc = mainpc;
+        returns[rsp++] = -1;
+        for (;;) {
+            int start = pc;
+            Code.OpCode op = OPS[(code[pc++] & 0xFF) - 1];
+            instructions++;
+            int x, y;
+            switch (op) {
+                case load: push(locals[fp + u1(pc++)]); break;
+                case load_0: case load_1: case load_2: case load_3:
+                    push(locals[fp + op.ordinal() - Code.OpCode.load_0.ordinal()]); break;
+                case store: locals[fp + u1(pc++)] = pop(); break;
+                case store_0: case store_1: case store_2: case store_3:
+                    locals[fp + op.ordinal() - Code.OpCode.store_0.ordinal()] = pop(); break;
+                case getstatic: push(data[s2(pc)]); pc += 2; break;
+                case putstatic: data[s2(pc)] = pop(); pc += 2; break;
+                case getfield: x = pop(); push(obj(x)[s2(pc)]); pc += 2; break;
+                case putfield: y = pop(); x = pop(); obj(x)[s2(pc)] = y; pc += 2; break;
+                case const_0: case const_1: case const_2: case const_3: case const_4: case const_5:
+                    push(op.ordinal() - Code.OpCode.const_0.ordinal()); break;
+                case const_m1: push(-1); break;
+                case const_: push((s2(pc) << 16) | (s2(pc + 2) & 0xFFFF)); pc += 4; break;
+                case add: y = pop(); push(pop() + y); break;
+                case sub: y = pop(); push(pop() - y); break;
+                case mul: y = pop(); push(pop() * y); break;
+                case div: y = pop(); push(pop() / y); break;
+                case rem: y = pop(); push(pop() % y); break;
+                case neg: push(-pop()); break;
+                case shl: y = pop(); push(pop() << y); break;
+                case shr: y = pop(); push(pop() >> y); break;
+                case inc: locals[fp + u1(pc)] += code[pc + 1]; pc += 2; break;
+                case new_: push(alloc(new int[s2(pc)])); pc += 2; break;
+                case newarray: pc++; push(alloc(new int[pop()])); break;
+                case aload: case baload: y = pop(); push(obj(pop())[y]); break;
+                case astore: case bastore:
+                    x = pop(); y = pop();
+                    obj(pop())[y] = op == Code.OpCode.bastore ? (byte) x : x; break;
+                case arraylength: push(obj(pop()).length); break;
+                case pop: pop(); break;
+                case dup: x = pop(); push(x); push(x); break;
+                case dup2: y = pop(); x = pop(); push(x); push(y); push(x); push(y); break;
+                case jmp: pc = start + s2(pc); break;
+                case jeq: case jne: case jlt: case jle: case jgt: case jge:
+                    y = pop(); x = pop();
+                    if (holds(op, x, y)) pc = start + s2(pc); else pc += 2;
+                    break;
+                case call: returns[rsp++] = pc + 2; pc = start + s2(pc); break;
+                case return_:
+                    pc = returns[--rsp];
+                    if (pc < 0) return instructions;
+                    break;
+                case enter: {
+                    int params = u1(pc), size = u1(pc + 1);
+                    pc += 2;
+                    frames[rsp] = fp;
+                    fp = lsp;
+                    lsp += size;
+                    Arrays.fill(locals, fp, lsp, 0);
+                    for (int i = params - 1; i >= 0; i--) locals[fp + i] = pop();
+                    break;
+                }
+                case exit: lsp = fp; fp = frames[rsp]; break;
+                case read: case bread: push(0); break;
+                case print: case bprint: pop(); pop(); break;
+                case trap: throw new IllegalStateException("trap " + u1(pc) + " at " + start);
+                default: break;
+            }
+        }
+    }
+
+    private static boolean holds(Code.OpCode op, int x, int y) {
+        switch (op) {
+            case jeq: return x == y;
+            case jne: return x != y;
+            case jlt: return x < y;
+            case jle: return x <= y;
+            case jgt: return x > y;
+            default: return x >= y;
+        }
+    }
+
+    private void push(int x) {
+        stack[sp++] = x;
+    }
+
+    private int pop() {
+        return stack[--sp];
+    }
+
+    private int u1(int p) {
+        return code[p] & 0xFF;
+    }
+
+    private int s2(int p) {
+        return (short) ((code[p] << 8) | (code[p + 1] & 0xFF));
+    }
+
+    private int[] obj(int ref) {
+        return heap.get(ref - 1);
+    }
+
+    private int alloc(int[] o) {
+        heap.add(o);
+        return heap.size();
+    }
+}
@@ -0,0 +1,266 @@
+package artmann.microjava.bench;
+
+/**
+ * Generates valid MicroJava programs of arbitrary size and shape. Every dimension can be scaled on its own:
+ * globals, classes and their fields, methods with their locals and statements, nesting depth of if/while,
+ * length and parenthesis depth of expressions, vararg calls and nested comments.
+ * Calls and jumps have 16 bit offsets in the object file and methods can only call methods declared before them,
+ * so every method first calls the method just before it and main only calls the last one: a call never crosses
+ * more than one method, however many methods there are.
+ * For the same reason a long expression is split into methods of at most EXPR_CHUNK terms and every vararg call
+ * gets a method of its own, right after its own copy of sum. Only a single vararg call of more than about
+ * MAX_VARARGS arguments does not fit into the offsets, and deep nesting is bounded by the recursion of the Parser.
+ */
+public final class ProgramGenerator {
+
+    public static final int MAX_GLOBALS = 32767;
+    public static final int MAX_FIELDS = 32767;
+    public static final int MAX_LOCALS = 127;
+    public static final int MAX_VARARGS = 2000;
+
+    /**
+     * Terms of a long expression per method, so that the calls over them stay within the 16 bit offsets.
+     */
+    private static final int EXPR_CHUNK = 2000;
+
+    /**
+     * Locals every generated method declares besides the extra ones: p, i, x, arr, r.
+     */
+    private static final int FIXED_LOCALS = 5;
+
+    private int globals = 10;
+    private int classes = 0;
+    private int fields = 0;
+    private int methods = 5;
+    private int locals = 0;
+    private int statements = 20;
+    private int nesting = 0;
+    private int exprLength = 0;
+    private int parenDepth = 0;
+    private int varargCalls = 0;
+    private int varargs = 0;
+    private int commentDepth = 0;
+    private int commentLength = 0;
+
+    /**
+     * The method generated last, which the next one calls, or null before the first one.
+     */
+    private String previous;
+
+    public ProgramGenerator globals(int n) { globals = n; return this; }
+    public ProgramGenerator classes(int n) { classes = n; return this; }
+    public ProgramGenerator fields(int n) { fields = n; return this; }
+    public ProgramGenerator methods(int n) { methods = n; return this; }
+    public ProgramGenerator statements(int n) { statements = n; return this; }
+    public ProgramGenerator nesting(int n) { nesting = n; return this; }
+    public ProgramGenerator exprLength(int n) { exprLength = n; return this; }
+    public ProgramGenerator parenDepth(int n) { parenDepth = n; return this; }
+    public ProgramGenerator varargCalls(int n) { varargCalls = n; return this; }
+    public ProgramGenerator commentDepth(int n) { commentDepth = n; return this; }
+    public ProgramGenerator commentLength(int n) { commentLength = n; return this; }
+
+    /**
+     * Additional local variables per method, at most MAX_LOCALS minus the five every method declares.
+     */
+    public ProgramGenerator locals(int n) {
+        if (n + FIXED_LOCALS > MAX_LOCALS) throw new IllegalArgumentException("too many locals: " + n);
+        locals = n;
+        return this;
+    }
+
+    /**
+     * Arguments per vararg call, at most MAX_VARARGS: a call is encoded after its arguments and cannot jump back further.
+     */
+    public ProgramGenerator varargs(int n) {
+        if (n > MAX_VARARGS) throw new IllegalArgumentException("too many varargs: " + n);
+        varargs = n;
+        return this;
+    }
+
+    public static ProgramGenerator small() {
+        return new ProgramGenerator().globals(5).methods(2).statements(10);
+    }
+
+    public static ProgramGenerator medium() {
+        return new ProgramGenerator().globals(200).methods(50).statements(100);
+    }
+
+    public static ProgramGenerator large() {
+        return new ProgramGenerator().globals(5000).methods(500).statements(400);
+    }
+
+    public String generate() {
+        StringBuilder sb = new StringBuilder("program Generated\n");
+        sb.append("  final int SIZE = 10;\n");
+        sb.append("  class Rec { int a; int b; Rec next; }\n");
+        for (int c = 0; c < classes; c++) {
+            sb.append("  class C").append(c).append(" {");
+            for (int f = 0; f < fields; f++) {
+                sb.append(f % 16 == 0 ? "\n    " : " ").append("int f").append(f).append(';');
+            }
+            sb.append("\n  }\n");
+            sb.append("  C").append(c).append(" c").append(c).append(";\n");
+        }
+        for (int i = 0; i < globals; i++) {
+            sb.append("  int g").append(i).append(";\n");
+        }
+        sb.append("{\n");
+        previous = null;
+        for (int m = 0; m < methods; m++) {
+            comment(sb);
+            for (int e = EXPR_CHUNK; e < exprLength; e += EXPR_CHUNK) {
+                expressionMethod(sb, m, e - EXPR_CHUNK);
+            }
+            for (int v = 0; v < varargCalls; v++) {
+                varargMethod(sb, m, v);
+            }
+            method(sb, m);
+        }
+        sb.append("  void main() int x; {\n    x = 0;\n");
+        for (int c = 0; c < classes; c++) {
+            sb.append("    c").append(c).append(" = new C").append(c).append(";\n");
+        }
+        if (previous != null) {
+            sb.append("    x = x + ").append(previous).append("(").append(methods - 1).append(");\n");
+        }
+        sb.append("    print(x);\n  }\n}\n");
+        return sb.toString();
+    }
+
+    private void method(StringBuilder sb, int m) {
+        sb.append("  int m").append(m).append("(int p) int i, x; int[] arr; Rec r;");
+        for (int l = 0; l < locals; l++) {
+            sb.append(l % 16 == 0 ? "\n    int " : ", ").append('l').append(l);
+            if (l % 16 == 15 || l == locals - 1) sb.append(';');
+        }
+        sb.append(" {\n");
+        callPrevious(sb);
+        sb.append(" arr = new int[SIZE]; r = new Rec; i = 0;\n");
+        for (int l = 0; l < locals; l++) {
+            sb.append("    l").append(l).append(" = x + ").append(l).append(";\n");
+        }
+        for (int s = 0; s < statements; s++) {
+            statement(sb, m, s);
+        }
+        if (nesting > 0) {
+            nested(sb, nesting, 2);
+        }
+        if (exprLength > 0) {
+            // the terms before the last chunk are in the expression methods before this one
+            expression(sb, exprLength > EXPR_CHUNK ? "x" : "p", (exprLength - 1) / EXPR_CHUNK * EXPR_CHUNK, exprLength);
+        }
+        if (parenDepth > 0) {
+            sb.append("    x = ");
+            for (int d = 0; d < parenDepth; d++) sb.append('(');
+            sb.append('p');
+            for (int d = 0; d < parenDepth; d++) sb.append(" + ").append(d % 10).append(')');
+            sb.append(";\n");
+        }
+        if (classes > 0 && fields > 0) {
+            int c = m % classes;
+            for (int f = 0; f < fields; f += Math.max(1, fields / 8)) {
+                sb.append("    c").append(c).append(".f").append(f).append(" = c").append(c).append(".f").append(fields - 1 - f).append(" + x;\n");
+            }
+        }
+        sb.append("    return x;\n  }\n");
+        previous = "m" + m;
+    }
+
+    /**
+     * A method that continues the long expression of method m with the chunk starting at term from.
+     */
+    private void expressionMethod(StringBuilder sb, int m, int from) {
+        String name = "e" + m + "_" + from / EXPR_CHUNK;
+        sb.append("  int ").append(name).append("(int p) int i, x; int[] arr; {\n");
+        callPrevious(sb);
+        sb.append(" arr = new int[SIZE]; i = 0;\n");
+        expression(sb, "x", from, from + EXPR_CHUNK);
+        sb.append("    return x;\n  }\n");
+        previous = name;
+    }
+
+    private static void expression(StringBuilder sb, String start, int from, int to) {
+        sb.append("    x = ").append(start);
+        for (int e = from; e < to; e++) {
+            switch (e % 4) {
+                case 0: sb.append(" + ").append(e); break;
+                case 1: sb.append(" - i * ").append(e % 7 + 1); break;
+                case 2: sb.append(" + x / ").append(e % 5 + 1); break;
+                default: sb.append(" - arr[").append(e % 10).append(']'); break;
+            }
+        }
+        sb.append(";\n");
+    }
+
+    /**
+     * A method with the vararg call v of method m, preceded by the copy of sum it calls.
+     */
+    private void varargMethod(StringBuilder sb, int m, int v) {
+        String sum = "sum" + m + "_" + v;
+        sb.append("  int ").append(sum).append("(int n, int xs...) int i, s; {\n");
+        sb.append("    s = n; i = 0;\n    while (i < len(xs)) { s += xs[i]; i++; }\n    return s;\n  }\n");
+        String name = "v" + m + "_" + v;
+        sb.append("  int ").append(name).append("(int p) int x; {\n");
+        callPrevious(sb);
+        sb.append("\n    x = ").append(sum).append('(').append(v).append(" #").append(varargs);
+        for (int a = 0; a < varargs; a++) {
+            sb.append(a == 0 ? " " : ", ").append("x + ").append(a);
+        }
+        sb.append(");\n    return x;\n  }\n");
+        previous = name;
+    }
+
+    private void callPrevious(StringBuilder sb) {
+        if (previous != null) sb.append("    x = p + ").append(previous).append("(p);");
+        else sb.append("    x = p;");
+    }
+
+    private void statement(StringBuilder sb, int m, int s) {
+        int g = globals > 0 ? (m * 31 + s) % globals : -1;
+        switch (s % 5) {
+            case 0:
+                sb.append("    x = x * 2 + ").append(s).append(" - i / 3;\n");
+                break;
+            case 1:
+                sb.append("    while (i < SIZE) { arr[i] = x + i; i++; }\n");
+                break;
+            case 2:
+                sb.append("    if (x > ").append(s).append(" && x < 1000 || i == 0) x = x - 1; else x += 2;\n");
+                break;
+            case 3:
+                sb.append("    r.a = r.b + arr[i % SIZE]; r.b = r.a * 3;\n");
+                break;
+            default:
+                if (g >= 0) sb.append("    g").append(g).append(" = g").append(g).append(" + x;\n");
+                else sb.append("    i = 0;\n");
+                break;
+        }
+    }
+
+    private void nested(StringBuilder sb, int depth, int indent) {
+        for (int d = 0; d < depth; d++) {
+            indent(sb, indent + d);
+            if (d % 2 == 0) sb.append("if (x > ").append(d).append(") {\n");
+            else sb.append("while (i < ").append(d).append(") {\n");
+        }
+        indent(sb, indent + depth);
+        sb.append("x = x + 1; i++;\n");
+        for (int d = depth - 1; d >= 0; d--) {
+            indent(sb, indent + d);
+            sb.append("}\n");
+        }
+    }
+
+    private void comment(StringBuilder sb) {
+        if (commentDepth == 0 && commentLength == 0) return;
+        sb.append("  ");
+        for (int d = 0; d < Math.max(1, commentDepth); d++) sb.append("/* ");
+        for (int c = 0; c < commentLength; c++) sb.append(c % 64 == 63 ? '\n' : (char) ('a' + c % 26));
+        for (int d = 0; d < Math.max(1, commentDepth); d++) sb.append(" */");
+        sb.append('\n');
+    }
+
+    private static void indent(StringBuilder sb, int n) {
+        for (int i = 0; i < Math.min(n, 32); i++) sb.append("  ");
+    }
+}
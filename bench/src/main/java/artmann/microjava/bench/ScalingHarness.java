@@ -0,0 +1,92 @@
+package artmann.microjava.bench;
+
+import artmann.microjava.InMemoryCompiler;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.function.IntFunction;
+
+/**
+ * Compiles generated programs while scaling one dimension at a time and reports how compile time and
+ * allocated memory grow. Run with an optional dimension name to only scale that one.
+ * All sizes compile, a size that fails reports the limit of the compiler it ran into.
+ */
+public class ScalingHarness {
+
+    private static final int RUNS = 5;
+
+    private static final class Dimension {
+        final String name;
+        final int[] sizes;
+        final IntFunction<ProgramGenerator> generator;
+
+        Dimension(String name, int[] sizes, IntFunction<ProgramGenerator> generator) {
+            this.name = name;
+            this.sizes = sizes;
+            this.generator = generator;
+        }
+    }
+
+    private static final Dimension[] DIMENSIONS = {
+            new Dimension("globals", new int[]{1000, 4000, 16000, ProgramGenerator.MAX_GLOBALS},
+                    n -> new ProgramGenerator().globals(n).methods(1).statements(5)),
+            new Dimension("fields", new int[]{1000, 4000, 16000, ProgramGenerator.MAX_FIELDS},
+                    n -> new ProgramGenerator().classes(2).fields(n).methods(4).statements(5)),
+            new Dimension("locals", new int[]{16, 32, 64, ProgramGenerator.MAX_LOCALS - 5},
+                    n -> new ProgramGenerator().methods(200).locals(n).statements(5)),
+            new Dimension("methods", new int[]{100, 400, 1600, 6400},
+                    n -> new ProgramGenerator().methods(n).statements(20)),
+            // the Parser is recursive in the nesting, deeper programs overflow the default thread stack
+            new Dimension("nesting", new int[]{100, 200, 400, 800},
+                    n -> new ProgramGenerator().methods(1).statements(0).nesting(n)),
+            new Dimension("exprLength", new int[]{1000, 4000, 16000, 64000},
+                    n -> new ProgramGenerator().methods(1).statements(0).exprLength(n)),
+            new Dimension("parenDepth", new int[]{100, 400, 1600, 6400},
+                    n -> new ProgramGenerator().methods(1).statements(0).parenDepth(n)),
+            new Dimension("varargs", new int[]{100, 300, 1000, ProgramGenerator.MAX_VARARGS},
+                    n -> new ProgramGenerator().methods(10).statements(0).varargCalls(10).varargs(n)),
+            new Dimension("comments", new int[]{1000, 10000, 100000, 1000000},
+                    n -> new ProgramGenerator().methods(10).statements(5).commentDepth(n / 1000).commentLength(n)),
+    };
+
+    public static void main(String[] args) {
+        System.out.printf("%-12s %8s %12s %12s %12s %12s%n", "dimension", "size", "chars", "time ms", "alloc MB", "ns/unit");
+        for (Dimension dim : DIMENSIONS) {
+            if (args.length > 0 && !Arrays.asList(args).contains(dim.name)) continue;
+            for (int size : dim.sizes) {
+                char[] src = dim.generator.apply(size).generate().toCharArray();
+                long[] times = new long[RUNS];
+                long alloc = 0;
+                String failure = null;
+                for (int r = 0; r < RUNS && failure == null; r++) {
+                    long before = allocatedBytes();
+                    long start = System.nanoTime();
+                    try {
+                        InMemoryCompiler.Output output = InMemoryCompiler.compile(src);
+                        if (!output.success()) failure = output.diagnostics.get(0).toString();
+                    } catch (StackOverflowError e) {
+                        failure = "stack overflow";
+                    }
+                    times[r] = System.nanoTime() - start;
+                    alloc = allocatedBytes() - before;
+                }
+                if (failure != null) {
+                    System.out.printf("%-12s %8d %12d   failed: %s%n", dim.name, size, src.length, failure);
+                    continue;
+                }
+                Arrays.sort(times);
+                long median = times[RUNS / 2];
+                System.out.printf("%-12s %8d %12d %12.2f %12.2f %12.1f%n", dim.name, size, src.length,
+                        median / 1e6, alloc / 1e6, (double) median / size);
+            }
+        }
+    }
+
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,48 @@
+package artmann.microjava.bench;
+
+import artmann.microjava.Scanner;
+import artmann.microjava.Token;
+import artmann.microjava.TokenBuffer;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scans a whole generated program through a TokenBuffer, the tokens counter gives tokens/sec.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ScannerBenchmark {
+
+    @Param({"small", "medium", "large"})
+    public String size;
+
+    private char[] src;
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Counters {
+        public long tokens;
+    }
+
+    @Setup
+    public void setup() {
+        src = Sources.of(size);
+    }
+
+    @Benchmark
+    public TokenBuffer scan(Counters counters) {
+        Scanner scanner = new Scanner(src, src.length);
+        TokenBuffer tokens = new TokenBuffer();
+        int t;
+        do {
+            t = scanner.next(tokens);
+        } while (tokens.type(t) != Token.TokenType.eof);
+        counters.tokens += tokens.size();
+        return tokens;
+    }
+}
@@ -0,0 +1,58 @@
+package artmann.microjava.bench;
+
+import artmann.microjava.Parser;
+import artmann.microjava.Scanner;
+
+/**
+ * Declares the maximum number of globals (32767) and a class with the maximum number of fields (32767)
+ * and measures how long the compilation takes.
+ */
+public class ScopeBenchmark {
+
+    private static final int MAX = 32767;
+    private static final int RUNS = 10;
+
+    public static void main(String[] args) {
+        char[] globals = globals(MAX).toCharArray();
+        char[] fields = fields(MAX).toCharArray();
+        for (int i = 0; i < RUNS; i++) {
+            System.out.println("globals: " + compile(globals) / 1000000 + " ms, fields: " + compile(fields) / 1000000 + " ms");
+        }
+    }
+
+    private static long compile(char[] src) {
+        long start = System.nanoTime();
+        Scanner scanner = new Scanner(src, src.length);
+        Parser parser = new Parser(scanner);
+        parser.parse();
+        long time = System.nanoTime() - start;
+        if (scanner.errors.errorCount() > 0) {
+            throw new IllegalStateException(scanner.errors.toString());
+        }
+        return time;
+    }
+
+    private static String globals(int n) {
+        StringBuilder sb = new StringBuilder("program Globals\n");
+        for (int i = 0; i < n; i++) {
+            sb.append("  int g").append(i).append(";\n");
+        }
+        sb.append("{\n  void main() {\n");
+        for (int i = 0; i < n; i += 7) {
+            sb.append("    g").append(i).append(" = g").append(n - 1 - i).append(";\n");
+        }
+        return sb.append("  }\n}\n").toString();
+    }
+
+    private static String fields(int n) {
+        StringBuilder sb = new StringBuilder("program Fields\n  class Wide {\n");
+        for (int i = 0; i < n; i++) {
+            sb.append("    int f").append(i).append(";\n");
+        }
+        sb.append("  }\n  Wide w;\n{\n  void main() {\n    w = new Wide;\n");
+        for (int i = 0; i < n; i += 7) {
+            sb.append("    w.f").append(i).append(" = w.f").append(n - 1 - i).append(";\n");
+        }
+        return sb.append("  }\n}\n").toString();
+    }
+}
@@ -0,0 +1,19 @@
+package artmann.microjava.bench;
+
+/**
+ * Generated sources shared by the benchmarks, selected by the size parameter.
+ */
+final class Sources {
+
+    private Sources() {
+    }
+
+    static char[] of(String size) {
+        switch (size) {
+            case "small": return ProgramGenerator.small().generate().toCharArray();
+            case "medium": return ProgramGenerator.medium().generate().toCharArray();
+            case "large": return ProgramGenerator.large().generate().toCharArray();
+            default: throw new IllegalArgumentException("unknown size " + size);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package artmann.microjava.bench;
+
+import artmann.microjava.Parser;
+import artmann.microjava.Scanner;
+import artmann.microjava.symtab.Obj;
+import artmann.microjava.symtab.SymTab;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Declares n variables in one scope and looks each of them up again, the counter gives declarations/sec.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SymTabBenchmark {
+
+    @Param({"100", "32767"})
+    public int n;
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Counters {
+        public long declarations;
+    }
+
+    private String[] names;
+
+    @Setup
+    public void setup() {
+        names = new String[n];
+        for (int i = 0; i < n; i++) {
+            names[i] = "v" + i;
+        }
+    }
+
+    @Benchmark
+    public int declareAndFind(Counters counters) {
+        SymTab tab = new Parser(new Scanner(new char[0], 0)).tab;
+        int[] ids = new int[n];
+        for (int i = 0; i < n; i++) {
+            ids[i] = tab.names.intern(names[i]);
+        }
+        tab.openScope();
+        for (int id : ids) {
+            tab.declare(Obj.Kind.Var, id, SymTab.intType);
+        }
+        int sum = 0;
+        for (int id : ids) {
+            sum += tab.find(id).adr();
+        }
+        tab.closeScope();
+        counters.declarations += n;
+        return sum;
+    }
+}
@@ -1,6 +1,7 @@
 package artmann.microjava.codegen;
 
 import artmann.microjava.Errors;
+import artmann.microjava.Metrics;
 import artmann.microjava.Parser;
 import artmann.microjava.symtab.Obj;
 import artmann.microjava.symtab.SymTab;
@@ -96,6 +97,15 @@ public class Code {
             return ordinal() + 1;
         }
 
+        /**
+         * Size of the instruction in bytes, including its operands.
+         */
+        public int size() {
+            int size = 1;
+            for (Operands op : ops) size += op.size;
+            return size;
+        }
+
         public String cleanName() {
             String name = name();
             if (name.endsWith("_")) {
@@ -104,11 +114,13 @@ public class Code {
             return name;
         }
 
+        private static final OpCode[] VALUES = values();
+
         public static OpCode get(int code) {
-            if (code < 1 || code > values().length) {
+            if (code < 1 || code > VALUES.length) {
                 return null;
             }
-            return values()[code - 1];
+            return VALUES[code - 1];
         }
     }
 
@@ -132,9 +144,20 @@ public class Code {
             }
             throw new IllegalArgumentException("Unexpected compare operator");
         }
+
+        public boolean holds(int x, int y) {
+            switch (this) {
+                case eq: return x == y;
+                case ne: return x != y;
+                case lt: return x < y;
+                case le: return x <= y;
+                case gt: return x > y;
+                default: return x >= y;
+            }
+        }
     }
 
-    public String[] buf;
+    public byte[] buf;
 
     public int pc;
 
@@ -142,28 +165,99 @@ public class Code {
 
     public int dataSize;
 
+    /**
+     * Strength reduction in arith, assignments and comparisons, on unless -Dmicrojava.strengthReduction=false.
+     */
+    public static final boolean STRENGTH_REDUCTION = Boolean.parseBoolean(System.getProperty("microjava.strengthReduction", "true"));
+
+    /**
+     * While loops with the condition behind the body, on unless -Dmicrojava.loopRotation=false.
+     */
+    public static final boolean LOOP_ROTATION = Boolean.parseBoolean(System.getProperty("microjava.loopRotation", "true"));
+
+    /**
+     * Unreachable code is not emitted and constant conditions are folded, on unless -Dmicrojava.deadCode=false.
+     */
+    public static final boolean DEAD_CODE_ELIMINATION = Boolean.parseBoolean(System.getProperty("microjava.deadCode", "true"));
+
+    /**
+     * False after an unconditional jump or a return until the next label that is jumped to. Nothing is emitted
+     * while the code is unreachable.
+     */
+    public boolean reachable = true;
+
+    /**
+     * Highest position that is the target of a jump, code before it is never removed by dropJump.
+     */
+    int lastTarget;
+
+    /**
+     * Constants and locals whose load is delayed by deferConst and deferLocal, emitted in order before the next byte.
+     */
+    private int[] deferred = new int[8];
+
+    private boolean[] deferredLocal = new boolean[8];
+
+    private int nDeferred;
+
+    /**
+     * Position of the last emitted opcode.
+     */
+    private int lastOp = -1;
+
     protected Parser parser;
 
+    final Metrics metrics;
+
+    /**
+     * Nesting depth of timed calls, only the outermost one adds to the codegen timer.
+     */
+    private int timed;
+
+    /**
+     * Peephole optimizer run on every finished method, null if it is disabled.
+     */
+    public final Peephole peephole;
+
     public Code(Parser p) {
         parser = p;
-        buf = new String[100];
+        metrics = p.scanner.metrics;
+        peephole = Peephole.WINDOW > 0 ? new Peephole(Peephole.WINDOW) : null;
+        buf = new byte[100];
         pc = 0;
         mainpc = -1;
         dataSize = 0;
     }
 
+    /**
+     * Starts the codegen timer around a public emitting method, returns the start time for stopTimer.
+     */
+    private long startTimer() {
+        return Metrics.ENABLED && timed++ == 0 ? System.nanoTime() : 0;
+    }
+
+    private void stopTimer(long start) {
+        if (Metrics.ENABLED && --timed == 0) metrics.codegenNanos += System.nanoTime() - start;
+    }
+
     public void put(OpCode code) {
-        if (pc == buf.length) {
-            buf = Arrays.copyOf(buf, buf.length * 2);
-        }
-        buf[pc++] = "\n" + code.cleanName();
+        long timer = startTimer();
+        put(code.code());
+        if (reachable) lastOp = pc - 1;
+        stopTimer(timer);
     }
 
     public void put(int x) {
-        if (pc == buf.length) {
-            buf = Arrays.copyOf(buf, buf.length * 2);
+        long timer = startTimer();
+        if (nDeferred > 0) flushDeferred();
+        if (reachable) {
+            if (pc == buf.length) {
+                buf = Arrays.copyOf(buf, buf.length * 2);
+                if (Metrics.ENABLED) metrics.growths++;
+            }
+            buf[pc++] = (byte) x;
         }
-        buf[pc++] = " " + x;
+        stopTimer(timer);
     }
 
     public void put2(int x) {
@@ -176,14 +270,61 @@ public class Code {
         put2(x);
     }
 
+    /**
+     * Emits the relative jump or call offset d, reports an error if it does not fit into the 16 bit operand.
+     */
+    public void putOffset(int d) {
+        put2(checkOffset(d));
+    }
+
+    public void putOffset(int pos, int d) {
+        put2(pos, checkOffset(d));
+    }
+
+    private int checkOffset(int d) {
+        if (d < Short.MIN_VALUE || d > Short.MAX_VALUE) parser.error(Errors.Message.TOO_FAR);
+        return d;
+    }
+
     public void put2(int pos, int x) {
-        int oldpc = pc;
-        pc = pos;
-        put2(x);
-        pc = oldpc;
+        buf[pos] = (byte) (x >> 8);
+        buf[pos + 1] = (byte) x;
+    }
+
+    public int get(int pos) {
+        return buf[pos];
+    }
+
+    public int get2(int pos) {
+        return (get(pos) << 8) | (get(pos + 1) & 0xFF);
     }
 
+    public int get4(int pos) {
+        return (get2(pos) << 16) | (get2(pos + 2) & 0xFFFF);
+    }
+
+    /**
+     * Writes the object file: "MJ", codeSize, dataSize and mainpc as 4 byte words, then the code bytes.
+     */
+    public void write(OutputStream os) throws IOException {
+        long start = Metrics.ENABLED ? System.nanoTime() : 0;
+        DataOutputStream out = new DataOutputStream(os);
+        out.writeByte('M');
+        out.writeByte('J');
+        out.writeInt(pc);
+        out.writeInt(dataSize);
+        out.writeInt(mainpc);
+        out.write(buf, 0, pc);
+        out.flush();
+        out.close();
+        if (Metrics.ENABLED) metrics.writeNanos += System.nanoTime() - start;
+    }
+
+    /**
+     * Writes a clear text disassembly of the code, one instruction per line.
+     */
     public void write(BufferedWriter os) throws IOException {
+        long start = Metrics.ENABLED ? System.nanoTime() : 0;
         int codeSize = pc;
 
         os.write("MJ\n");
@@ -191,30 +332,49 @@ public class Code {
         os.write(dataSize + "\n");
         os.write(mainpc + "\n");
 
-        for(String s : buf){
-            if (s != null) os.write(s);
+        int pos = 0;
+        while (pos < codeSize) {
+            OpCode code = OpCode.get(buf[pos++] & 0xFF);
+            if (code == null) {
+                os.write("\n?");
+                continue;
+            }
+            os.write("\n");
+            os.write(code.cleanName());
+            for (int i = 0; i < code.ops.length; i++) {
+                Operands op = code.ops[i];
+                os.write(' ');
+                switch (op) {
+                    // the constant of inc is the only signed byte operand
+                    case B: os.write(Integer.toString(code == OpCode.inc && i == 1 ? buf[pos] : buf[pos] & 0xFF)); break;
+                    case S: os.write(Integer.toString(get2(pos))); break;
+                    case W: os.write(Integer.toString(get4(pos))); break;
+                }
+                pos += op.size;
+            }
         }
         os.flush();
         os.close();
+        if (Metrics.ENABLED) metrics.writeNanos += System.nanoTime() - start;
     }
 
     public void load(Operand x) {
+        long timer = startTimer();
         loadAndKeep(x);
         x.kind = Operand.Kind.Stack;
+        stopTimer(timer);
     }
 
     public void loadAndKeep(Operand x) {
+        long timer = startTimer();
         switch (x.kind){
             case Con:
-                if(0 <= x.val && x.val <= 5) put(OpCode.get(OpCode.const_0.code() + x.val));
-                else if (x.val == -1) put(OpCode.const_m1);
-                else { put(OpCode.const_); put4(x.val); }
+                putConst(x.val);
                 break;
             case Static:
                 put(OpCode.getstatic); put2(x.adr); break;
             case Local:
-                if (0 <= x.adr && x.adr <= 3) put(OpCode.get(OpCode.load_0.code() + x.adr));
-                else { put(OpCode.load); put(x.adr); }
+                putLoad(x.adr);
                 break;
             case Fld:
                 put(OpCode.getfield); put2(x.adr); break;
@@ -224,9 +384,11 @@ public class Code {
             case Stack: break;
             default: parser.error(Errors.Message.NO_VAL);
         }
+        stopTimer(timer);
     }
 
     public void assign(Operand x, Operand y){
+        long timer = startTimer();
         if(y.kind == Operand.Kind.Meth) call(y);
         else load(y);
         switch (x.kind) {
@@ -242,15 +404,14 @@ public class Code {
                 break;
             default: parser.error(Errors.Message.NO_VAR);
         }
+        stopTimer(timer);
     }
 
     public void incDec(Operand x, boolean inc){
+        long timer = startTimer();
         if(x.type != SymTab.intType) parser.error(Errors.Message.NO_INT);
         if(x.kind == Operand.Kind.Local) {
-            put(Code.OpCode.inc);
-            put(x.adr);
-            if (inc) put(1);
-            else put(255);
+            inc(x.adr, inc ? 1 : -1);
         } else if (x.kind == Operand.Kind.Static || x.kind == Operand.Kind.Fld || x.kind == Operand.Kind.Elem){
             dup(x);
             loadAndKeep(x);
@@ -259,21 +420,244 @@ public class Code {
             put(Code.OpCode.add);
             assign(x, new Operand(SymTab.intType));
         } else parser.error(Errors.Message.NO_VAR);
+        stopTimer(timer);
     }
 
     public void call(Operand meth){
+        long timer = startTimer();
         if (meth.kind != Operand.Kind.Meth) parser.error(Errors.Message.NO_METH);
         put(Code.OpCode.call);
-        put2(meth.adr - (pc - 1));
+        putOffset(meth.adr - (pc - 1));
+        stopTimer(timer);
     }
 
     public void return_(Obj meth){
-        if(meth.type == SymTab.noType){
-            put(Code.OpCode.exit);
-            put(Code.OpCode.return_);
+        long timer = startTimer();
+        if(meth.type() == SymTab.noType){
+            exit();
         } else {
             put(Code.OpCode.trap); put(1);
         }
+        stopTimer(timer);
+    }
+
+    /**
+     * Called when the method starting at start is finished, runs the peephole optimizer if it is enabled.
+     * Code with errors is never written, so it is not optimized.
+     */
+    public void methodDone(int start){
+        long timer = startTimer();
+        reachable = true;
+        if(peephole != null && parser.scanner.errors.errorCount() == 0) peephole.optimize(this, start);
+        stopTimer(timer);
+    }
+
+    /**
+     * Called at the start of a method, which is reachable through calls.
+     */
+    public void methodStart(){
+        reachable = true;
+        lastTarget = pc;
+    }
+
+    /**
+     * Marks the current pc as the target of jumps that are emitted later, returns it.
+     */
+    public int target(){
+        lastTarget = pc;
+        return pc;
+    }
+
+    /**
+     * Removes the jmp at the end of the code if its operand is at pos and no other jump goes behind it,
+     * the code after it is then reached by falling through.
+     */
+    boolean dropJump(int pos){
+        if (!DEAD_CODE_ELIMINATION || nDeferred > 0 || pos != pc - 2 || pc - 3 < lastTarget || buf[pc - 3] != (byte) OpCode.jmp.code()) return false;
+        pc -= 3;
+        lastOp = -1;
+        reachable = true;
+        return true;
+    }
+
+    private void unreachable(){
+        if (DEAD_CODE_ELIMINATION) reachable = false;
+    }
+
+    /**
+     * Leaves the method, the code after it is unreachable.
+     */
+    public void exit(){
+        long timer = startTimer();
+        put(OpCode.exit);
+        put(OpCode.return_);
+        unreachable();
+        stopTimer(timer);
+    }
+
+    /**
+     * Delays loading the constant val until the next byte is emitted, so that it can still be folded with
+     * the following operand. Returns the mark for undefer.
+     */
+    public int deferConst(int val){
+        return defer(val, false);
+    }
+
+    /**
+     * Same as deferConst for the local variable at adr. Expressions cannot change locals, so the value is the same.
+     */
+    public int deferLocal(int adr){
+        return defer(adr, true);
+    }
+
+    private int defer(int val, boolean local){
+        if (nDeferred == deferred.length) {
+            deferred = Arrays.copyOf(deferred, nDeferred * 2);
+            deferredLocal = Arrays.copyOf(deferredLocal, nDeferred * 2);
+        }
+        deferred[nDeferred] = val;
+        deferredLocal[nDeferred] = local;
+        return nDeferred++;
+    }
+
+    /**
+     * Drops the constant deferred with the given mark, returns false if it has already been emitted.
+     */
+    public boolean undefer(int mark){
+        if (nDeferred != mark + 1) return false;
+        nDeferred--;
+        return true;
+    }
+
+    private void flushDeferred(){
+        int n = nDeferred;
+        nDeferred = 0;
+        for (int i = 0; i < n; i++) {
+            if (deferredLocal[i]) putLoad(deferred[i]);
+            else putConst(deferred[i]);
+        }
+    }
+
+    private void putConst(int val){
+        if(0 <= val && val <= 5) put(OpCode.get(OpCode.const_0.code() + val));
+        else if (val == -1) put(OpCode.const_m1);
+        else { put(OpCode.const_); put4(val); }
+    }
+
+    private void putLoad(int adr){
+        if (0 <= adr && adr <= 3) put(OpCode.get(OpCode.load_0.code() + adr));
+        else { put(OpCode.load); put(adr); }
+    }
+
+    /**
+     * Code removed by cut, with the position it was cut from and the highest jump target in it (-1 if none).
+     */
+    public static final class Fragment {
+        final byte[] code;
+        final int from;
+        final int target;
+
+        Fragment(byte[] code, int from, int target) {
+            this.code = code;
+            this.from = from;
+            this.target = target;
+        }
+    }
+
+    /**
+     * Removes the code from start to the end and returns it, to be emitted again later with paste.
+     */
+    public Fragment cut(int start){
+        if (nDeferred > 0) flushDeferred();
+        Fragment f = new Fragment(Arrays.copyOfRange(buf, start, pc), start, lastTarget >= start ? lastTarget : -1);
+        pc = start;
+        lastOp = -1;
+        lastTarget = Math.min(lastTarget, start);
+        return f;
+    }
+
+    /**
+     * Emits code that was removed by cut and fixes the calls in it. Jumps within the code stay valid,
+     * unresolved labels it references must be moved by the caller.
+     */
+    public void paste(Fragment f){
+        long timer = startTimer();
+        int start = pc;
+        for (byte x : f.code) put(x);
+        int delta = start - f.from;
+        for (int p = start; p < pc; ) {
+            OpCode op = OpCode.get(buf[p] & 0xFF);
+            if (op == null) break;
+            if (op == OpCode.call) putOffset(p + 1, get2(p + 1) - delta);
+            p += op.size();
+        }
+        lastOp = -1;
+        if (f.target >= 0 && f.target + delta > lastTarget) lastTarget = f.target + delta;
+        stopTimer(timer);
+    }
+
+    /**
+     * Removes the last emitted instruction if it is op and nothing has been emitted after it.
+     */
+    public boolean dropLast(OpCode op){
+        if (nDeferred > 0 || !reachable || lastOp < 0 || lastOp != pc - 1 || buf[lastOp] != (byte) op.code()) return false;
+        pc = lastOp;
+        lastOp = -1;
+        return true;
+    }
+
+    /**
+     * Instruction selection for x op y with x already on the stack: loads y and emits op, or a cheaper equivalent
+     * if y is a constant. Multiplications by powers of two become shifts. Signed division by a power of two is
+     * kept, because shr rounds negative values down instead of towards zero.
+     */
+    public void arith(OpCode op, Operand y){
+        long timer = startTimer();
+        if (y.kind == Operand.Kind.Con && y.type == SymTab.intType && reduce(op, y.val)) {
+            y.kind = Operand.Kind.Stack;
+        } else {
+            if (y.kind == Operand.Kind.Meth) call(y);
+            else load(y);
+            put(op);
+        }
+        stopTimer(timer);
+    }
+
+    /**
+     * Emits a cheaper equivalent of op with the constant c as right operand, returns false if there is none.
+     */
+    private boolean reduce(OpCode op, int c){
+        if (!STRENGTH_REDUCTION) return false;
+        switch (op) {
+            case add: case sub:
+                return c == 0;
+            case mul:
+                if (c == 1) return true;
+                if (c == -1) { put(OpCode.neg); return true; }
+                if (c > 0 && (c & (c - 1)) == 0) {
+                    putConst(Integer.numberOfTrailingZeros(c));
+                    put(OpCode.shl);
+                    return true;
+                }
+                return false;
+            case div:
+                if (c == 1) return true;
+                if (c == -1) { put(OpCode.neg); return true; }
+                return false;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Adds c (-128..127) to the local variable at adr.
+     */
+    public void inc(int adr, int c){
+        long timer = startTimer();
+        put(OpCode.inc);
+        put(adr);
+        put(c);
+        stopTimer(timer);
     }
 
     public void loadConst(int val){
@@ -281,19 +665,35 @@ public class Code {
     }
 
     public void jump(Label lab){
+        long timer = startTimer();
         put(OpCode.jmp);
         lab.put();
+        unreachable();
+        stopTimer(timer);
     }
 
+    /**
+     * Jumps to the true label of x. A condition without a pending comparison is a constant, it is true if
+     * the code is still reachable.
+     */
     public void tJump(Operand x){
-        put(OpCode.get(OpCode.jeq.code() + (x.op.ordinal())));
-        x.tLabel.put();
+        long timer = startTimer();
+        if(x.op == null) {
+            if(x.kind == Operand.Kind.Con) jump(x.tLabel());
+        } else {
+            put(OpCode.get(OpCode.jeq.code() + (x.op.ordinal())));
+            x.tLabel().put();
+        }
+        stopTimer(timer);
     }
 
     public void fJump(Operand x){
-        if(x.op == null) return;
-        put(OpCode.get(OpCode.jeq.code() + (CompOp.invert(x.op).ordinal())));
-        x.fLabel.put();
+        long timer = startTimer();
+        if(x.op != null) {
+            put(OpCode.get(OpCode.jeq.code() + (CompOp.invert(x.op).ordinal())));
+            x.fLabel().put();
+        }
+        stopTimer(timer);
     }
 
     private void dup(Operand x){
@@ -1,7 +1,6 @@
 package artmann.microjava.codegen;
 
-import java.util.ArrayList;
-import java.util.List;
+import artmann.microjava.Metrics;
 
 public final class Label {
 
@@ -9,34 +8,76 @@ public final class Label {
 
     private final Code code;
 
+    /**
+     * Position of the last unresolved jump to this label, -1 if there is none. The operand of each
+     * unresolved jump holds the distance to the previous one (0 ends the chain), so the fixup list
+     * is threaded through the code buffer itself.
+     */
+    private int fixups;
+
 	public Label(Code code) {
         this.code = code;
 	    adr = -1;
+	    fixups = -1;
+	    if (Metrics.ENABLED) code.metrics.labels++;
     }
 
-    private List<Integer> fixupList = new ArrayList<>();
-
     public void put() {
+        if(!code.reachable) return;
         if(isDefined()){
-            code.put2(adr - (code.pc -1));
+            code.putOffset(adr - (code.pc -1));
         } else {
-            fixupList.add(code.pc);
-            code.put2(0);
+            int pos = code.pc;
+            // the distance is at most the offset of the earlier jump, so it is checked like an offset
+            code.putOffset(fixups < 0 ? 0 : pos - fixups);
+            fixups = pos;
         }
     }
 
 
     public void here() {
+        if(fixups >= 0) {
+            int dist = code.get2(fixups) & 0xFFFF;
+            if(code.dropJump(fixups)) fixups = dist == 0 ? -1 : fixups - dist;
+            code.reachable = true;
+        }
+        at(code.pc);
+    }
+
+    /**
+     * Defines the label at adr, which may lie before the current pc for jumps back into code that was already emitted.
+     */
+    public void at(int adr) {
         if(isDefined()){
             throw new IllegalStateException("label defined twice");
         }
 
-        for(int pos : fixupList){
-            code.put2(pos, code.pc - (pos-1));
+        int pos = fixups;
+        while (pos >= 0) {
+            int dist = code.get2(pos) & 0xFFFF;
+            code.putOffset(pos, adr - (pos-1));
+            if (Metrics.ENABLED) code.metrics.fixups++;
+            pos = dist == 0 ? -1 : pos - dist;
         }
 
-        fixupList = null;
-        adr = code.pc;
+        fixups = -1;
+        this.adr = adr;
+        // nothing can jump to a label in unreachable code that has no jumps yet
+        if (code.reachable && adr > code.lastTarget) code.lastTarget = adr;
+    }
+
+    /**
+     * True if there are unresolved jumps to this label.
+     */
+    public boolean isReferenced() {
+        return fixups >= 0;
+    }
+
+    /**
+     * Called when all unresolved jumps to this label were moved by delta bytes.
+     */
+    public void moved(int delta) {
+        if (fixups >= 0) fixups += delta;
     }
 
     private boolean isDefined(){
@@ -19,19 +19,24 @@ public class Operand {
     public int adr;
     public Code.CompOp op;
     public Obj obj;
-    public Label tLabel;
-    public Label fLabel;
+
+    /**
+     * Jump labels of a condition, only allocated when first referenced.
+     */
+    private Label tLabel;
+    private Label fLabel;
+    private Code code;
 
     public Operand(Obj o, Parser parser) {
-        type = o.type;
-        val = o.val;
-        adr = o.adr;
-        switch (o.kind) {
+        type = o.type();
+        val = o.val();
+        adr = o.adr();
+        switch (o.kind()) {
             case Con:
                 kind = Kind.Con;
                 break;
             case Var:
-                if (o.level == 0) {
+                if (o.level() == 0) {
                     kind = Kind.Static;
                 } else {
                     kind = Kind.Local;
@@ -54,8 +59,7 @@ public class Operand {
     }
 
     public Operand(Code code) {
-        tLabel = new Label(code);
-        fLabel = new Label(code);
+        this.code = code;
     }
 
     public Operand(Struct type) {
@@ -69,4 +73,78 @@ public class Operand {
         val = x;
     }
 
+    /**
+     * True if this and y are int constants that can be folded with the arithmetic operator op.
+     * Division by a constant zero is not folded, it is left for the runtime.
+     */
+    public boolean canFold(Code.OpCode op, Operand y) {
+        return kind == Kind.Con && y.kind == Kind.Con && type == SymTab.intType && y.type == SymTab.intType
+                && !((op == Code.OpCode.div || op == Code.OpCode.rem) && y.val == 0);
+    }
+
+    /**
+     * Folds the constant y into this constant, with the 32 bit wraparound of the MicroJava VM.
+     */
+    public void fold(Code.OpCode op, Operand y) {
+        switch (op) {
+            case add: val += y.val; break;
+            case sub: val -= y.val; break;
+            case mul: val *= y.val; break;
+            case div: val /= y.val; break;
+            case rem: val %= y.val; break;
+            default: throw new IllegalArgumentException("cannot fold " + op);
+        }
+    }
+
+    public Label tLabel() {
+        if (tLabel == null) tLabel = new Label(code);
+        return tLabel;
+    }
+
+    public Label fLabel() {
+        if (fLabel == null) fLabel = new Label(code);
+        return fLabel;
+    }
+
+    /**
+     * Takes over the false label of another condition, which may not have been allocated yet.
+     */
+    public void shareFLabel(Operand other) {
+        fLabel = other.fLabel;
+    }
+
+    /**
+     * Defines the true label at the current pc. Condition labels are never referenced after they are
+     * defined, so an unreferenced label is not allocated at all.
+     */
+    public void tHere() {
+        if (tLabel != null) tLabel.here();
+    }
+
+    public void fHere() {
+        if (fLabel != null) fLabel.here();
+    }
+
+    /**
+     * Defines the true label at adr, before the current pc.
+     */
+    public void tAt(int adr) {
+        if (tLabel != null && tLabel.isReferenced()) tLabel.at(adr);
+    }
+
+    /**
+     * True if the condition has jumps to its true label, which is not defined yet.
+     */
+    public boolean jumpsIfTrue() {
+        return tLabel != null && tLabel.isReferenced();
+    }
+
+    /**
+     * Called when the code of the condition was moved by delta bytes, before any of its labels is defined.
+     */
+    public void moved(int delta) {
+        if (tLabel != null) tLabel.moved(delta);
+        if (fLabel != null) fLabel.moved(delta);
+    }
+
 }
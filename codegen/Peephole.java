@@ -0,0 +1,254 @@
+package artmann.microjava.codegen;
+
+import java.util.Arrays;
+
+/**
+ * Optional peephole optimizer, run over the code of each method as soon as it is finished.
+ * Enabled with -Dmicrojava.peephole=n, where n is the window: the number of instructions a rule may
+ * look at, which also bounds how far jump chains are followed. Rules that need a larger window are skipped.
+ *
+ * The method is decoded into instructions with absolute jump targets, rules delete or rewrite instructions,
+ * and the method is then laid out again with all jump and call offsets recomputed.
+ */
+public final class Peephole {
+
+    /**
+     * Largest accepted window, longer jump chains than this are not worth following.
+     */
+    public static final int MAX_WINDOW = 64;
+
+    public static final int WINDOW = window(Integer.getInteger("microjava.peephole", 0));
+
+    public enum Rule {
+        STORE_LOAD(2),     // store b; load b        -> dup; store b, also for store_n; load_n
+        JUMP_CHAIN(1),     // jump to a jmp          -> jump to its target
+        JUMP_NEXT(1),      // jmp to the next instruction is removed
+        JUMP_OVER_JUMP(2), // jcc L1; jmp L2; L1:    -> jncc L2
+        ADD_ZERO(2);       // const_0; add/sub is removed
+
+        public final int window;
+
+        Rule(int window) {
+            this.window = window;
+        }
+    }
+
+    private static final Rule[] RULES = Rule.values();
+
+    private final int window;
+
+    private final int[] applied = new int[RULES.length];
+
+    private final int[] saved = new int[RULES.length];
+
+    // ----- decoded instructions of the current method
+    private int n;
+    private int[] pos = new int[64];
+    private Code.OpCode[] op = new Code.OpCode[64];
+    private int[] target = new int[64];   // instruction index for jumps, absolute address for calls, local for load and store
+    private boolean[] deleted = new boolean[64];
+    private boolean[] isTarget = new boolean[65];
+    private int[] newPos = new int[65];
+
+    public Peephole(int window) {
+        if (window < 1 || window > MAX_WINDOW) throw new IllegalArgumentException("window must be in 1.." + MAX_WINDOW);
+        this.window = window;
+    }
+
+    /**
+     * Clamps the configured window to 0 (off) .. MAX_WINDOW.
+     */
+    static int window(int configured) {
+        return Math.max(0, Math.min(MAX_WINDOW, configured));
+    }
+
+    public int applied(Rule rule) {
+        return applied[rule.ordinal()];
+    }
+
+    public int saved(Rule rule) {
+        return saved[rule.ordinal()];
+    }
+
+    /**
+     * Optimizes the instructions from start to the end of the code, which must not be the target of any
+     * jump or call from outside. Calls from inside may leave the range.
+     */
+    public void optimize(Code code, int start) {
+        decode(code, start);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            markTargets();
+            for (int i = 0; i < n; i++) {
+                if (!deleted[i] && apply(i)) changed = true;
+            }
+        }
+        layout(code, start);
+    }
+
+    private boolean apply(int i) {
+        Code.OpCode o = op[i];
+        if (isJump(o)) {
+            int t = live(target[i]);
+            for (int steps = 0; steps < window && t < n && op[t] == Code.OpCode.jmp && t != i; steps++) {
+                t = live(target[t]);
+            }
+            if (t != live(target[i]) && enabled(Rule.JUMP_CHAIN)) {
+                target[i] = t;
+                isTarget[t] = true;
+                count(Rule.JUMP_CHAIN, 0);
+                return true;
+            }
+            int j = next(i);
+            if (o == Code.OpCode.jmp) {
+                if (t == j && enabled(Rule.JUMP_NEXT)) {
+                    delete(i);
+                    count(Rule.JUMP_NEXT, 3);
+                    return true;
+                }
+            } else if (j < n && op[j] == Code.OpCode.jmp && !isTarget[j] && t == next(j) && enabled(Rule.JUMP_OVER_JUMP)) {
+                op[i] = Code.OpCode.get(Code.OpCode.jeq.code() + Code.CompOp.invert(Code.CompOp.values()[o.ordinal() - Code.OpCode.jeq.ordinal()]).ordinal());
+                target[i] = target[j];
+                delete(j);
+                count(Rule.JUMP_OVER_JUMP, 3);
+                return true;
+            }
+            return false;
+        }
+        int j = next(i);
+        if (j == n || isTarget[j]) return false;
+        if (o == Code.OpCode.const_0 && (op[j] == Code.OpCode.add || op[j] == Code.OpCode.sub) && enabled(Rule.ADD_ZERO)) {
+            delete(i);
+            delete(j);
+            count(Rule.ADD_ZERO, 2);
+            return true;
+        }
+        if (isStore(o) && isLoad(op[j]) && target[i] == target[j] && enabled(Rule.STORE_LOAD)) {
+            int bytes = o.size() + op[j].size();
+            // the store takes the form of the load, whose operand byte is kept by the layout
+            op[i] = Code.OpCode.dup;
+            op[j] = op[j] == Code.OpCode.load ? Code.OpCode.store : Code.OpCode.values()[Code.OpCode.store_0.ordinal() + target[j]];
+            count(Rule.STORE_LOAD, bytes - 1 - op[j].size());
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Deletes instruction i, jumps to it then continue at the next instruction.
+     */
+    private void delete(int i) {
+        deleted[i] = true;
+        if (isTarget[i]) isTarget[live(i)] = true;
+    }
+
+    private boolean enabled(Rule rule) {
+        return rule.window <= window;
+    }
+
+    private void count(Rule rule, int bytes) {
+        applied[rule.ordinal()]++;
+        saved[rule.ordinal()] += bytes;
+    }
+
+    private static boolean isLoad(Code.OpCode o) {
+        return o.ordinal() >= Code.OpCode.load.ordinal() && o.ordinal() <= Code.OpCode.load_3.ordinal();
+    }
+
+    private static boolean isStore(Code.OpCode o) {
+        return o.ordinal() >= Code.OpCode.store.ordinal() && o.ordinal() <= Code.OpCode.store_3.ordinal();
+    }
+
+    private static boolean isJump(Code.OpCode o) {
+        return o.ordinal() >= Code.OpCode.jmp.ordinal() && o.ordinal() <= Code.OpCode.jge.ordinal();
+    }
+
+    /**
+     * Next instruction that is not deleted, n if there is none.
+     */
+    private int next(int i) {
+        return live(i + 1);
+    }
+
+    private int live(int i) {
+        while (i < n && deleted[i]) i++;
+        return i;
+    }
+
+    private void markTargets() {
+        Arrays.fill(isTarget, 0, n + 1, false);
+        for (int i = 0; i < n; i++) {
+            if (!deleted[i] && isJump(op[i])) isTarget[live(target[i])] = true;
+        }
+    }
+
+    private void decode(Code code, int start) {
+        n = 0;
+        int p = start;
+        while (p < code.pc) {
+            if (n == pos.length) grow();
+            Code.OpCode o = Code.OpCode.get(code.buf[p] & 0xFF);
+            pos[n] = p;
+            op[n] = o;
+            deleted[n] = false;
+            if (isJump(o) || o == Code.OpCode.call) target[n] = p + code.get2(p + 1);
+            else if (o == Code.OpCode.store || o == Code.OpCode.load) target[n] = code.buf[p + 1] & 0xFF;
+            // the short forms are normalized to their local, so that rules match both forms
+            else if (isStore(o)) target[n] = o.ordinal() - Code.OpCode.store_0.ordinal();
+            else if (isLoad(o)) target[n] = o.ordinal() - Code.OpCode.load_0.ordinal();
+            else target[n] = -1;
+            p += o.size();
+            n++;
+        }
+        // jump targets as instruction indices, the end of the code is index n
+        for (int i = 0; i < n; i++) {
+            if (isJump(op[i])) {
+                int t = Arrays.binarySearch(pos, 0, n, target[i]);
+                target[i] = t < 0 ? n : t;
+            }
+        }
+    }
+
+    private void layout(Code code, int start) {
+        int p = start;
+        for (int i = 0; i < n; i++) {
+            newPos[i] = p;
+            if (!deleted[i]) p += op[i].size();
+        }
+        newPos[n] = p;
+        byte[] old = Arrays.copyOfRange(code.buf, start, code.pc);
+        code.pc = start;
+        for (int i = 0; i < n; i++) {
+            if (deleted[i]) continue;
+            Code.OpCode o = op[i];
+            code.put(o);
+            if (isJump(o)) {
+                code.putOffset(newPos[target[i]] - newPos[i]);
+            } else if (o == Code.OpCode.call) {
+                code.putOffset(target[i] - newPos[i]);
+            } else {
+                for (int k = 1; k < o.size(); k++) code.put(old[pos[i] - start + k]);
+            }
+        }
+    }
+
+    private void grow() {
+        int len = pos.length * 2;
+        pos = Arrays.copyOf(pos, len);
+        op = Arrays.copyOf(op, len);
+        target = Arrays.copyOf(target, len);
+        deleted = Arrays.copyOf(deleted, len);
+        isTarget = Arrays.copyOf(isTarget, len + 1);
+        newPos = Arrays.copyOf(newPos, len + 1);
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder("peephole:");
+        for (Rule rule : RULES) {
+            sb.append(' ').append(rule.name().toLowerCase()).append(' ')
+                    .append(applied[rule.ordinal()]).append("x/").append(saved[rule.ordinal()]).append('B');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,66 @@
+package artmann.microjava.jfr;
+
+import artmann.microjava.Metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * JFR event committed for every finished compilation while Metrics are enabled.
+ * Optional source, it needs the jdk.jfr module (JDK 11 or an 8u272+ runtime) and is loaded by Metrics
+ * through reflection, the compiler itself still builds with --release 8 without this directory.
+ */
+@Name("artmann.microjava.Compilation")
+@Label("MicroJava Compilation")
+@Category("MicroJava")
+public final class CompilationEvent extends Event {
+
+    @Label("Scan Time") @Timespan(Timespan.NANOSECONDS) long scanTime;
+    @Label("Symbol Table Time") @Timespan(Timespan.NANOSECONDS) long symtabTime;
+    @Label("Parse Time") @Timespan(Timespan.NANOSECONDS) long parseTime;
+    @Label("Codegen Time") @Timespan(Timespan.NANOSECONDS) long codegenTime;
+    @Label("Write Time") @Timespan(Timespan.NANOSECONDS) long writeTime;
+    @Label("Tokens") long tokens;
+    @Label("Symbols") long symbols;
+    @Label("Scope Lookups") long lookups;
+    @Label("Scope Probes") long probes;
+    @Label("Labels") long labels;
+    @Label("Fixups") long fixups;
+    @Label("Code Bytes") long bytes;
+    @Label("Buffer Growths") long growths;
+    @Label("Errors") long errors;
+
+    /**
+     * Commits one event per finished compilation, instantiated by Metrics.
+     */
+    public static final class Recorder implements Metrics.Recorder {
+        @Override
+        public void finished(Metrics.Snapshot s) {
+            CompilationEvent event = new CompilationEvent();
+            if (event.isEnabled()) {
+                event.set(s);
+                event.commit();
+            }
+        }
+    }
+
+    void set(Metrics.Snapshot s) {
+        scanTime = s.scanNanos;
+        symtabTime = s.symtabNanos;
+        parseTime = s.parseNanos;
+        codegenTime = s.codegenNanos;
+        writeTime = s.writeNanos;
+        tokens = s.tokens;
+        symbols = s.symbols;
+        lookups = s.lookups;
+        probes = s.probes;
+        labels = s.labels;
+        fixups = s.fixups;
+        bytes = s.bytes;
+        growths = s.growths;
+        errors = s.errors;
+    }
+}
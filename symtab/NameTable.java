@@ -0,0 +1,84 @@
+package artmann.microjava.symtab;
+
+import java.util.Arrays;
+
+/**
+ * Interns the identifiers of one compilation into dense int ids.
+ * The Scanner interns every identifier, the symbol table then only compares ids.
+ */
+public final class NameTable {
+
+    public static final int NONE = -1;
+
+    private String[] names;
+    private int[] table;
+    private int size;
+
+    public NameTable() {
+        names = new String[256];
+        table = new int[512];
+        Arrays.fill(table, NONE);
+    }
+
+    public int intern(char[] s, int off, int len) {
+        int mask = table.length - 1;
+        int i = hash(s, off, len) & mask;
+        for (int id = table[i]; id != NONE; id = table[i]) {
+            if (matches(names[id], s, off, len)) return id;
+            i = (i + 1) & mask;
+        }
+        return add(new String(s, off, len), i);
+    }
+
+    public int intern(String s) {
+        return intern(s.toCharArray(), 0, s.length());
+    }
+
+    public String name(int id) {
+        return id >= 0 && id < size ? names[id] : null;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private int add(String name, int slot) {
+        if (size == names.length) names = Arrays.copyOf(names, size * 2);
+        int id = size++;
+        names[id] = name;
+        table[slot] = id;
+        if (size * 2 > table.length) rehash();
+        return id;
+    }
+
+    private void rehash() {
+        table = new int[table.length * 2];
+        Arrays.fill(table, NONE);
+        int mask = table.length - 1;
+        for (int id = 0; id < size; id++) {
+            String name = names[id];
+            int i = hash(name) & mask;
+            while (table[i] != NONE) i = (i + 1) & mask;
+            table[i] = id;
+        }
+    }
+
+    private static int hash(char[] s, int off, int len) {
+        int h = 0;
+        for (int i = off; i < off + len; i++) h = 31 * h + s[i];
+        return h ^ (h >>> 16);
+    }
+
+    private static int hash(String s) {
+        int h = s.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean matches(String name, char[] s, int off, int len) {
+        if (name.length() != len) return false;
+        for (int i = 0; i < len; i++) {
+            if (name.charAt(i) != s[off + i]) return false;
+        }
+        return true;
+    }
+}
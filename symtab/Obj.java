@@ -1,26 +1,53 @@
 package artmann.microjava.symtab;
 
-import java.util.*;
-
-public class Obj {
+/**
+ * View on one object of a SymbolStore.
+ */
+public final class Obj {
 
     public enum Kind {
         Con, Var, Type, Meth, Prog
     }
 
-    public final Kind kind;
-    public final String name;
-    public Struct type;
-    public int val;
-    public int adr;
-    public int level;
-    public int nPars;
-    public boolean hasVarArg;
-    public LinkedList<Obj> locals = new LinkedList<>();
-
-    public Obj(Kind kind, String name, Struct type) {
-        this.kind = kind;
-        this.name = name;
-        this.type = type;
+    private final SymbolStore store;
+    public final int index;
+
+    Obj(SymbolStore store, int index) {
+        this.store = store;
+        this.index = index;
+    }
+
+    public Kind kind() { return store.kind(index); }
+    public int id() { return store.name(index); }
+    public String name() { return store.names.name(store.name(index)); }
+    public Struct type() { return store.type(index); }
+    public void setType(Struct type) { store.setType(index, type); }
+    public int val() { return store.val(index); }
+    public void setVal(int val) { store.setVal(index, val); }
+    public int adr() { return store.adr(index); }
+    public void setAdr(int adr) { store.setAdr(index, adr); }
+    public int level() { return store.level(index); }
+    public int nPars() { return store.nPars(index); }
+    public void setNPars(int nPars) { store.setNPars(index, nPars); }
+    public boolean hasVarArg() { return store.hasVarArg(index); }
+    public void setHasVarArg(boolean hasVarArg) { store.setHasVarArg(index, hasVarArg); }
+
+    public int nLocals() {
+        return store.nLocals(index);
+    }
+
+    public Obj local(int i) {
+        return store.obj(store.local(index, i));
+    }
+
+    /**
+     * Takes the objects declared in the given scope as locals.
+     */
+    public void setLocals(Scope scope) {
+        scope.copyLocalsTo(this);
+    }
+
+    void setLocals(int[] syms, int n) {
+        store.setLocals(index, syms, n);
     }
 }
@@ -1,48 +1,94 @@
 package artmann.microjava.symtab;
 
-import java.util.LinkedList;
+import artmann.microjava.Metrics;
+
+import java.util.Arrays;
 
 public final class Scope {
 
     private Scope outer;
-    private LinkedList<Obj> locals = new LinkedList<>();
+    private final SymbolStore store;
+    private int[] locals = new int[8];
+    private int nLocals;
     private int nVars;
-    public Scope(Scope outer) {
+
+    /**
+     * Open-addressing hash index over the name ids of locals, holding symbol index + 1 (0 is empty).
+     * The locals array keeps the declaration order.
+     */
+    private int[] index = new int[16];
+
+    public Scope(Scope outer, SymbolStore store) {
         this.outer = outer;
+        this.store = store;
     }
     public int nVars() {
         return nVars;
     }
 
-    public Obj findGlobal(String name) {
-        Obj res = findLocal(name);
-        if (res == null && outer != null) {
-            res = outer.findGlobal(name);
+    public Obj findGlobal(int id) {
+        for (Scope s = this; s != null; s = s.outer) {
+            Obj res = s.findLocal(id);
+            if (res != null) {
+                return res;
+            }
         }
-        return res;
+        return null;
     }
 
-    public Obj findLocal(String name) {
-        for(Obj o : locals) {
-            if(o.name.equals(name)) {
-                return o;
+    public Obj findLocal(int id) {
+        if (Metrics.ENABLED) store.metrics.lookups++;
+        int mask = index.length - 1;
+        for (int i = hash(id) & mask; index[i] != 0; i = (i + 1) & mask) {
+            if (Metrics.ENABLED) store.metrics.probes++;
+            int sym = index[i] - 1;
+            if (store.name(sym) == id) {
+                return store.obj(sym);
             }
         }
         return null;
     }
 
-    public void insert(Obj o) {
-        locals.add(o);
-        if (o.kind == Obj.Kind.Var) {
+    public void insert(int sym) {
+        if (nLocals == locals.length) {
+            locals = Arrays.copyOf(locals, nLocals * 2);
+        }
+        locals[nLocals++] = sym;
+        if (store.kind(sym) == Obj.Kind.Var) {
             nVars++;
         }
+        if (nLocals * 2 > index.length) {
+            index = new int[index.length * 2];
+            for (int i = 0; i < nLocals - 1; i++) {
+                put(locals[i]);
+            }
+        }
+        put(sym);
     }
 
     public Scope outer() {
         return outer;
     }
 
-    public LinkedList<Obj> locals() {
-        return locals;
+    public int nLocals() {
+        return nLocals;
+    }
+
+    void copyLocalsTo(Obj o) {
+        o.setLocals(locals, nLocals);
+    }
+
+    private void put(int sym) {
+        int mask = index.length - 1;
+        int i = hash(store.name(sym)) & mask;
+        while (index[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        index[i] = sym + 1;
+    }
+
+    private static int hash(int id) {
+        int h = id * 0x9E3779B9;
+        return h ^ (h >>> 16);
     }
 }
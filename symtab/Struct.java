@@ -1,8 +1,5 @@
 package artmann.microjava.symtab;
 
-import java.util.Collections;
-import java.util.List;
-
 public class Struct {
 
     public enum Kind {
@@ -13,7 +10,12 @@ public class Struct {
 
     public final Struct elemType;
 
-    public List<Obj> fields = Collections.emptyList();
+    private Scope fieldIndex;
+
+    /**
+     * Canonical array type with this element type, so that equal types are always the same object.
+     */
+    private volatile Struct arrayType;
 
     protected Struct(Kind kind, Struct elemType) {
         this.kind = kind;
@@ -24,31 +26,47 @@ public class Struct {
         this(kind, null);
     }
 
-    public Struct(Struct elemType) {
-        this(Kind.Arr, elemType);
+    public Struct arrayOf() {
+        Struct arr = arrayType;
+        if (arr == null) {
+            synchronized (this) {
+                arr = arrayType;
+                if (arr == null) {
+                    arr = new Struct(Kind.Arr, this);
+                    arrayType = arr;
+                }
+            }
+        }
+        return arr;
     }
 
-    public Obj findField(String name) {
-        for(Obj field : fields) {
-            if(field.name.equals(name)) {
-                return field;
-            }
+    /**
+     * Takes the fields of a closed class scope, its hash index is then used for field lookup.
+     * The predeclared types in SymTab are shared by all compilations and must stay unchanged.
+     */
+    public void setFields(Scope scope) {
+        if (kind != Kind.Class || this == SymTab.nullType) {
+            throw new IllegalStateException("fields can only be set on a declared class");
         }
-        return null;
+        fieldIndex = scope;
+    }
+
+    public Obj findField(int id) {
+        return fieldIndex != null ? fieldIndex.findLocal(id) : null;
     }
 
     public int nrFields() {
-        return fields.size();
+        return fieldIndex != null ? fieldIndex.nLocals() : 0;
     }
 
     public boolean compatibleWith(Struct other) {
-        return this.equals(other) ||
+        return this == other ||
                 (this == SymTab.nullType && other.isRefType()) ||
                 (other == SymTab.nullType && this.isRefType());
     }
 
     public boolean assignableTo(Struct dest) {
-        return this.equals(dest) ||
+        return this == dest ||
                 (this == SymTab.nullType && dest.isRefType()) ||
                 (this.kind == Kind.Arr && dest.kind == Kind.Arr && dest.elemType == SymTab.noType);
     }
@@ -56,12 +74,4 @@ public class Struct {
     public boolean isRefType() {
         return kind == Kind.Class || kind == Kind.Arr;
     }
-
-    private boolean equals(Struct other) {
-        if (kind == Kind.Arr && other != null) {
-            return other.kind == Kind.Arr && elemType.equals(other.elemType);
-        } else {
-            return this == other;
-        }
-    }
 }
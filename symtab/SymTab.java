@@ -1,6 +1,7 @@
 package artmann.microjava.symtab;
 
 import artmann.microjava.Errors;
+import artmann.microjava.Metrics;
 import artmann.microjava.Parser;
 
 public final class SymTab {
@@ -14,12 +15,18 @@ public final class SymTab {
 
     private final Parser parser;
 
+    public final NameTable names;
+
+    public final SymbolStore store;
+
     public Scope curScope = null;
 
     private int curLevel = -1;
 
-    public SymTab(Parser p) {
+    public SymTab(Parser p, NameTable names) {
         parser = p;
+        this.names = names;
+        store = new SymbolStore(names, p.scanner.metrics);
         init();
     }
 
@@ -30,33 +37,33 @@ public final class SymTab {
         insert(Obj.Kind.Type, "char", charType);
         insert(Obj.Kind.Con, "null", nullType);
 
-        noObj = new Obj(Obj.Kind.Var, "$none", intType);
+        noObj = store.obj(store.add(Obj.Kind.Var, NameTable.NONE, intType));
 
         chrObj = insert(Obj.Kind.Meth, "chr", charType);
         openScope();
         insert(Obj.Kind.Var, "i", intType);
-        chrObj.locals = curScope.locals();
+        chrObj.setLocals(curScope);
         closeScope();
-        chrObj.nPars++;
+        chrObj.setNPars(1);
 
         ordObj = insert(Obj.Kind.Meth, "ord", intType);
         openScope();
         insert(Obj.Kind.Var, "ch", charType);
-        ordObj.locals = curScope.locals();
+        ordObj.setLocals(curScope);
         closeScope();
-        ordObj.nPars++;
+        ordObj.setNPars(1);
 
         lenObj = insert(Obj.Kind.Meth, "len", intType);
         openScope();
-        insert(Obj.Kind.Var, "arr", new Struct(noType));
-        lenObj.locals = curScope.locals();
+        insert(Obj.Kind.Var, "arr", noType.arrayOf());
+        lenObj.setLocals(curScope);
         closeScope();
-        lenObj.nPars++;
+        lenObj.setNPars(1);
 
     }
 
     public void openScope(){
-        curScope = new Scope(curScope);
+        curScope = new Scope(curScope, store);
         curLevel++;
     }
 
@@ -66,47 +73,82 @@ public final class SymTab {
     }
 
     public Obj insert(Obj.Kind kind, String name, Struct type){
+        return insert(kind, names.intern(name), type);
+    }
 
-        if(name == null || name.equals("")) return noObj;
+    public Obj insert(Obj.Kind kind, int id, Struct type){
+        int sym = declare(kind, id, type);
+        return sym < 0 ? noObj : store.obj(sym);
+    }
 
-        Obj obj = new Obj(kind, name, type);
+    /**
+     * Same as insert, but returns the index of the new object in the store (-1 if the name is missing)
+     * and does not create an Obj view for it.
+     */
+    public int declare(Obj.Kind kind, int id, Struct type){
+
+        if(id == NameTable.NONE) return -1;
+
+        long start = Metrics.ENABLED ? System.nanoTime() : 0;
+        int sym = store.add(kind, id, type);
         if (kind == Obj.Kind.Var) {
-            obj.adr = curScope.nVars();
-            obj.level = curLevel;
+            store.setAdr(sym, curScope.nVars());
+            store.setLevel(sym, curLevel);
         }
-        if(curScope.findLocal(name) != null){
-            parser.error(Errors.Message.DECL_NAME, name);
+        if(curScope.findLocal(id) != null){
+            parser.error(Errors.Message.DECL_NAME, names.name(id));
         } else {
-            curScope.insert(obj);
+            curScope.insert(sym);
         }
-        return obj;
+        if (Metrics.ENABLED) {
+            store.metrics.symbols++;
+            store.metrics.symtabNanos += System.nanoTime() - start;
+        }
+        return sym;
 
     }
 
-    public Obj find(String name){
-        Obj obj = curScope.findGlobal(name);
+    public Obj find(int id){
+        Obj obj = findGlobal(id);
         if(obj != null) return obj;
         else {
-            parser.error(Errors.Message.NOT_FOUND, name);
+            parser.error(Errors.Message.NOT_FOUND, names.name(id));
             return noObj;
         }
     }
 
-    public Obj findMeth(String name){
-        Obj obj = curScope.findGlobal(name);
-        if(obj != null && obj.kind == Obj.Kind.Meth) return obj;
+    /**
+     * Same as find, but returns null instead of reporting an error, used during error recovery.
+     */
+    public Obj lookup(int id){
+        return findGlobal(id);
+    }
+
+    public Obj findMeth(int id){
+        Obj obj = findGlobal(id);
+        if(obj != null && obj.kind() == Obj.Kind.Meth) return obj;
         else {
-            parser.error(Errors.Message.METH_NOT_FOUND, name);
+            parser.error(Errors.Message.METH_NOT_FOUND, names.name(id));
             return noObj;
         }
     }
 
-    public Obj findField(String name, Struct type){
-        Obj obj = type.findField(name);
+    public Obj findField(int id, Struct type){
+        long start = Metrics.ENABLED ? System.nanoTime() : 0;
+        Obj obj = type.findField(id);
+        if (Metrics.ENABLED) store.metrics.symtabNanos += System.nanoTime() - start;
         if(obj != null) return obj;
         else {
-            parser.error(Errors.Message.NO_FIELD, name);
+            parser.error(Errors.Message.NO_FIELD, names.name(id));
             return noObj;
         }
     }
+
+    private Obj findGlobal(int id){
+        if (!Metrics.ENABLED) return curScope.findGlobal(id);
+        long start = System.nanoTime();
+        Obj obj = curScope.findGlobal(id);
+        store.metrics.symtabNanos += System.nanoTime() - start;
+        return obj;
+    }
 }
@@ -0,0 +1,116 @@
+package artmann.microjava.symtab;
+
+import artmann.microjava.Metrics;
+
+import java.util.Arrays;
+
+/**
+ * Symbol table objects of one compilation, stored as parallel primitive arrays and addressed by index.
+ * The locals of methods and the program are index ranges into one shared member array.
+ * Obj is only a thin view on an index, created the first time the object is looked up.
+ */
+public final class SymbolStore {
+
+    private static final Obj.Kind[] KINDS = Obj.Kind.values();
+
+    final NameTable names;
+    final Metrics metrics;
+
+    private byte[] kind;
+    private int[] name;
+    private Struct[] type;
+    private int[] val;
+    private int[] adr;
+    private int[] level;
+    private int[] nPars;
+    private boolean[] hasVarArg;
+    private int[] localsStart;
+    private int[] nLocals;
+    private Obj[] views;
+    private int size;
+
+    private int[] members;
+    private int nMembers;
+
+    public SymbolStore(NameTable names, Metrics metrics) {
+        this.names = names;
+        this.metrics = metrics;
+        int n = 64;
+        kind = new byte[n];
+        name = new int[n];
+        type = new Struct[n];
+        val = new int[n];
+        adr = new int[n];
+        level = new int[n];
+        nPars = new int[n];
+        hasVarArg = new boolean[n];
+        localsStart = new int[n];
+        nLocals = new int[n];
+        views = new Obj[n];
+        members = new int[n];
+    }
+
+    public int add(Obj.Kind k, int id, Struct t) {
+        if (size == kind.length) {
+            int n = size * 2;
+            kind = Arrays.copyOf(kind, n);
+            name = Arrays.copyOf(name, n);
+            type = Arrays.copyOf(type, n);
+            val = Arrays.copyOf(val, n);
+            adr = Arrays.copyOf(adr, n);
+            level = Arrays.copyOf(level, n);
+            nPars = Arrays.copyOf(nPars, n);
+            hasVarArg = Arrays.copyOf(hasVarArg, n);
+            localsStart = Arrays.copyOf(localsStart, n);
+            nLocals = Arrays.copyOf(nLocals, n);
+            views = Arrays.copyOf(views, n);
+        }
+        kind[size] = (byte) k.ordinal();
+        name[size] = id;
+        type[size] = t;
+        return size++;
+    }
+
+    public Obj obj(int i) {
+        Obj o = views[i];
+        if (o == null) {
+            o = new Obj(this, i);
+            views[i] = o;
+        }
+        return o;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    Obj.Kind kind(int i) { return KINDS[kind[i]]; }
+    int name(int i) { return name[i]; }
+    Struct type(int i) { return type[i]; }
+    void setType(int i, Struct t) { type[i] = t; }
+    int val(int i) { return val[i]; }
+    void setVal(int i, int v) { val[i] = v; }
+    int adr(int i) { return adr[i]; }
+    void setAdr(int i, int a) { adr[i] = a; }
+    int level(int i) { return level[i]; }
+    void setLevel(int i, int l) { level[i] = l; }
+    int nPars(int i) { return nPars[i]; }
+    void setNPars(int i, int n) { nPars[i] = n; }
+    boolean hasVarArg(int i) { return hasVarArg[i]; }
+    void setHasVarArg(int i, boolean v) { hasVarArg[i] = v; }
+    int nLocals(int i) { return nLocals[i]; }
+    int local(int i, int n) { return members[localsStart[i] + n]; }
+
+    /**
+     * Copies the first n symbol indices of syms into the member array as the locals of object i.
+     */
+    void setLocals(int i, int[] syms, int n) {
+        if (nMembers + n > members.length) {
+            members = Arrays.copyOf(members, Math.max(members.length * 2, nMembers + n));
+        }
+        System.arraycopy(syms, 0, members, nMembers, n);
+        localsStart[i] = nMembers;
+        nLocals[i] = n;
+        nMembers += n;
+    }
+}